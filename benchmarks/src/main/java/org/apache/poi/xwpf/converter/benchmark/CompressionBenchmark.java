@@ -0,0 +1,101 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures the tradeoff between conversion time and output size
+ * for the deflate levels of XML and media parts, compressed on the calling
+ * thread or in parallel. Level -1 is the zlib default (6), level 0 stores the
+ * parts without deflating them. At scale 10 the document part is large
+ * enough to be split into chunks.
+ *
+ * @author Anton
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+	@Param({ "text.xhtml", "advanced_table.xhtml", "advanced_cv.xhtml" })
+	public String resource;
+
+	@Param({ "10" })
+	public int scale;
+
+	@Param({ "-1", "1", "0" })
+	public int xmlLevel;
+
+	@Param({ "-1", "0" })
+	public int mediaLevel;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private byte[] xhtml;
+	private XWPFOptions options;
+
+	@Setup
+	public void setup() throws IOException {
+		this.xhtml = ConversionPhases.scale(
+				ConversionPhases.load(this.resource), this.scale);
+		this.options = XWPFOptions.create();
+		this.options.setXmlCompressionLevel(this.xmlLevel);
+		this.options.setMediaCompressionLevel(this.mediaLevel);
+		this.options.setParallelCompression(this.parallel);
+	}
+
+	@Benchmark
+	public long convert(OutputSize size) throws IOException {
+		long bytes = ConversionPhases.convert(this.xhtml, this.options);
+		size.outputBytes = bytes;
+		return bytes;
+	}
+
+	/**
+	 * Output size reported next to the timing.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class OutputSize {
+		public long outputBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.outputBytes = 0;
+		}
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
+import org.apache.poi.xwpf.converter.xwpf.handler.XMLReaderPool;
+import org.apache.poi.xwpf.converter.xwpf.handler.XWPFConverter;
+import org.apache.poi.xwpf.converter.xwpf.template.DataAccess;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * This class runs the individual conversion phases and prepares benchmark
+ * inputs.
+ * 
+ * The phases are:
+ * <ul>
+ * <li>parse - SAX parse including DTD and entity resolution, no mapping</li>
+ * <li>map - parse and map to XWPFDocument, no serialization (map cost is map
+ * minus parse)</li>
+ * <li>write - serialization of an already mapped document</li>
+ * <li>convert - the whole conversion as seen by users</li>
+ * </ul>
+ * 
+ * @author Anton
+ * 
+ */
+public final class ConversionPhases {
+
+	private static final DefaultHandler NO_OP_HANDLER = new DefaultHandler();
+
+	private static final String HTML_END_TAG = "</html>";
+
+	private ConversionPhases() {
+
+	}
+
+	/**
+	 * This method parses the XHTML document without mapping it.
+	 * 
+	 * @param xhtml
+	 *            XHTML document
+	 * @throws IOException
+	 * @throws SAXException
+	 */
+	public static void parse(byte[] xhtml) throws IOException, SAXException {
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader reader = pool.acquire(NO_OP_HANDLER);
+		boolean failed = true;
+		try {
+			reader.parse(new InputSource(new ByteArrayInputStream(xhtml)));
+			failed = false;
+		} finally {
+			pool.release(reader, failed);
+		}
+	}
+
+	/**
+	 * This method parses and maps the XHTML document.
+	 * 
+	 * @param xhtml
+	 *            XHTML document
+	 * @return mapped document
+	 * @throws IOException
+	 */
+	public static XWPFDocument map(byte[] xhtml) throws IOException {
+		return XWPFConverter.getInstance().convertToDocument(
+				new ByteArrayInputStream(xhtml), null);
+	}
+
+	/**
+	 * This method serializes the mapped document.
+	 * 
+	 * @param document
+	 *            mapped document
+	 * @return number of written bytes
+	 * @throws IOException
+	 */
+	public static long write(XWPFDocument document) throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		document.write(out);
+		return out.count;
+	}
+
+	/**
+	 * This method runs the whole conversion.
+	 * 
+	 * @param xhtml
+	 *            XHTML document
+	 * @return number of written bytes
+	 * @throws IOException
+	 */
+	public static long convert(byte[] xhtml) throws IOException {
+		return convert(xhtml, null);
+	}
+
+	/**
+	 * This method runs the whole conversion with the given options.
+	 * 
+	 * @param xhtml
+	 *            XHTML document
+	 * @param options
+	 *            conversion options, null for defaults
+	 * @return number of written bytes
+	 * @throws IOException
+	 */
+	public static long convert(byte[] xhtml, XWPFOptions options)
+			throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		XWPFConverter.getInstance().doConvert(new ByteArrayInputStream(xhtml),
+				out, options);
+		return out.count;
+	}
+
+	/**
+	 * This method loads a bundled XHTML resource.
+	 * 
+	 * @param resource
+	 *            resource name, e.g. text.xhtml
+	 * @return resource content
+	 * @throws IOException
+	 */
+	public static byte[] load(String resource) throws IOException {
+		InputStream in = DataAccess.class.getResourceAsStream(resource);
+		if (in == null) {
+			throw new IOException("Resource not found: " + resource);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * This method repeats the content of the html element, so the document
+	 * has the given number of copies of every table row and paragraph.
+	 * 
+	 * @param xhtml
+	 *            XHTML document
+	 * @param factor
+	 *            number of copies
+	 * @return scaled document
+	 * @throws IOException
+	 */
+	public static byte[] scale(byte[] xhtml, int factor) throws IOException {
+		String document = new String(xhtml, "UTF-8");
+		int contentStart = document.indexOf('>', document.indexOf("<html")) + 1;
+		int contentEnd = document.lastIndexOf(HTML_END_TAG);
+		String content = document.substring(contentStart, contentEnd);
+
+		StringBuilder result = new StringBuilder(document.length() * factor);
+		result.append(document, 0, contentStart);
+		for (int i = 0; i < factor; i++) {
+			result.append(content);
+		}
+		result.append(document, contentEnd, document.length());
+		return result.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * This method generates a document with the given number of paragraphs and
+	 * a table with the given number of rows.
+	 * 
+	 * @param rows
+	 *            number of paragraphs and table rows
+	 * @return generated document
+	 * @throws IOException
+	 */
+	public static byte[] synthetic(int rows) throws IOException {
+		StringBuilder result = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\">");
+		for (int i = 0; i < rows; i++) {
+			result.append("<p>Paragraph ").append(i)
+					.append(" with <strong>strong</strong> and <em>italic</em> text.</p>");
+		}
+		result.append("<table border=\"1\" style=\"width:100%\">");
+		for (int i = 0; i < rows; i++) {
+			result.append("<tr>");
+			for (int j = 0; j < 4; j++) {
+				result.append("<td><p>Cell ").append(i).append('.').append(j)
+						.append("</p></td>");
+			}
+			result.append("</tr>");
+		}
+		result.append("</table></html>");
+		return result.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * Output stream that only counts bytes.
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.count += len;
+		}
+	}
+
+}
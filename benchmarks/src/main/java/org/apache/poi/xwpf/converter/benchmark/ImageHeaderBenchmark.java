@@ -0,0 +1,114 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.poi.xwpf.converter.xwpf.image.ImageHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures reading the type and size of an image from its header
+ * (ImageHeader) against ImageIO, which the converter would otherwise use:
+ * a full decode into a BufferedImage, and an ImageReader asked for the size
+ * only. The images are generated with noise, so they do not compress to
+ * nothing.
+ * 
+ * @author Anton
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageHeaderBenchmark {
+
+	@Param({ "png", "jpeg", "gif", "bmp" })
+	public String format;
+
+	@Param({ "1024" })
+	public int size;
+
+	private byte[] image;
+
+	@Setup
+	public void setup() throws IOException {
+		BufferedImage bufferedImage = new BufferedImage(this.size,
+				this.size * 3 / 4, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		for (int y = 0; y < bufferedImage.getHeight(); y++) {
+			for (int x = 0; x < bufferedImage.getWidth(); x++) {
+				bufferedImage.setRGB(x, y, random.nextInt(64) << 16 | x << 8
+						| y);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(bufferedImage, this.format, out);
+		this.image = out.toByteArray();
+	}
+
+	@Benchmark
+	public int header() {
+		ImageHeader header = ImageHeader.read(this.image);
+		return header.getWidth() + header.getHeight();
+	}
+
+	@Benchmark
+	public int imageIoDecode() throws IOException {
+		BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(
+				this.image));
+		return bufferedImage.getWidth() + bufferedImage.getHeight();
+	}
+
+	@Benchmark
+	public int imageIoReader() throws IOException {
+		ImageInputStream in = ImageIO
+				.createImageInputStream(new ByteArrayInputStream(this.image));
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in);
+				return reader.getWidth(0) + reader.getHeight(0);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
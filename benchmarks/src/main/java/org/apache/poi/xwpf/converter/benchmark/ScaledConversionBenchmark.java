@@ -0,0 +1,108 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * This class measures how the conversion phases scale with the number of
+ * table rows and paragraphs. Bundled resources are scaled by repeating their
+ * content; the synthetic input is a generated document with the given number
+ * of paragraphs and table rows (times 10).
+ * 
+ * Large inputs take seconds per operation, so single shot mode is used.
+ * 
+ * @author Anton
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScaledConversionBenchmark {
+
+	public static final String SYNTHETIC = "synthetic";
+
+	@Param({ "text.xhtml", "advanced_table.xhtml", "advanced_cv.xhtml",
+			SYNTHETIC })
+	public String resource;
+
+	@Param({ "10", "100", "1000" })
+	public int scale;
+
+	private byte[] xhtml;
+
+	@Setup
+	public void setup() throws IOException {
+		if (SYNTHETIC.equals(this.resource)) {
+			this.xhtml = ConversionPhases.synthetic(this.scale * 10);
+		} else {
+			this.xhtml = ConversionPhases.scale(
+					ConversionPhases.load(this.resource), this.scale);
+		}
+	}
+
+	@Benchmark
+	public void parse() throws IOException, SAXException {
+		ConversionPhases.parse(this.xhtml);
+	}
+
+	@Benchmark
+	public XWPFDocument map() throws IOException {
+		return ConversionPhases.map(this.xhtml);
+	}
+
+	@Benchmark
+	public long write(MappedDocument mapped) throws IOException {
+		return ConversionPhases.write(mapped.document);
+	}
+
+	@Benchmark
+	public long convert() throws IOException {
+		return ConversionPhases.convert(this.xhtml);
+	}
+
+	/**
+	 * Freshly mapped document for the write phase.
+	 */
+	@State(Scope.Thread)
+	public static class MappedDocument {
+		private XWPFDocument document;
+
+		@Setup(Level.Iteration)
+		public void setup(ScaledConversionBenchmark benchmark)
+				throws IOException {
+			this.document = ConversionPhases.map(benchmark.xhtml);
+		}
+	}
+
+}
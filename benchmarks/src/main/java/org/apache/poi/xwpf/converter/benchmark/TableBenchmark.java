@@ -0,0 +1,131 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures the mapping of tables. Bundled resources are scaled by
+ * repeating their content; the rowspan input is a generated table with the
+ * given number of rows (times 10), whose first column is made of cells
+ * spanning three rows. The wide input is a generated table with the given
+ * number of rows and 200 columns.
+ *
+ * @author Anton
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TableBenchmark {
+
+	public static final String ROWSPAN = "rowspan";
+	public static final String WIDE = "wide";
+
+	private static final int COLUMNS = 6;
+	private static final int WIDE_COLUMNS = 200;
+
+	@Param({ "advanced_table.xhtml", "advanced_cv.xhtml", ROWSPAN, WIDE })
+	public String resource;
+
+	@Param({ "10", "100" })
+	public int scale;
+
+	private byte[] xhtml;
+
+	@Setup
+	public void setup() throws IOException {
+		if (ROWSPAN.equals(this.resource)) {
+			this.xhtml = rowSpanTable(this.scale * 10);
+		} else if (WIDE.equals(this.resource)) {
+			this.xhtml = wideTable(this.scale);
+		} else {
+			this.xhtml = ConversionPhases.scale(
+					ConversionPhases.load(this.resource), this.scale);
+		}
+	}
+
+	@Benchmark
+	public XWPFDocument map() throws IOException {
+		return ConversionPhases.map(this.xhtml);
+	}
+
+	/**
+	 * This method generates a table whose first column spans three rows.
+	 *
+	 * @param rows
+	 *            number of table rows
+	 * @return generated document
+	 * @throws IOException
+	 */
+	private static byte[] rowSpanTable(int rows) throws IOException {
+		StringBuilder result = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><table border=\"1\">");
+		for (int i = 0; i < rows; i++) {
+			result.append("<tr>");
+			if (i % 3 == 0) {
+				result.append("<td rowspan=\"3\">Group ").append(i / 3)
+						.append("</td>");
+			}
+			for (int j = 1; j < COLUMNS; j++) {
+				result.append("<td>Cell ").append(i).append('.').append(j)
+						.append("</td>");
+			}
+			result.append("</tr>");
+		}
+		result.append("</table></html>");
+		return result.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * This method generates a table with many columns.
+	 *
+	 * @param rows
+	 *            number of table rows
+	 * @return generated document
+	 * @throws IOException
+	 */
+	private static byte[] wideTable(int rows) throws IOException {
+		StringBuilder result = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><table border=\"1\">");
+		for (int i = 0; i < rows; i++) {
+			result.append("<tr>");
+			for (int j = 0; j < WIDE_COLUMNS; j++) {
+				result.append("<td>").append(i).append('.').append(j)
+						.append("</td>");
+			}
+			result.append("</tr>");
+		}
+		result.append("</table></html>");
+		return result.toString().getBytes("UTF-8");
+	}
+
+}
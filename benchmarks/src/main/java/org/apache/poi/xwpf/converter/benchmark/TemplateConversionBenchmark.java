@@ -0,0 +1,98 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * This class measures throughput and latency of every conversion phase for
+ * each bundled XHTML resource.
+ * 
+ * @author Anton
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateConversionBenchmark {
+
+	@Param({ "text.xhtml", "cv.xhtml", "bo.xhtml", "advanced_table.xhtml",
+			"advanced_table_subset.xhtml", "advanced_cv.xhtml",
+			"web_table.xhtml", "formatting_test.xhtml", "numbers_test.xhtml",
+			"advanced_formatting_and_chars_test.xhtml", "cv_p_within_p.xhtml",
+			"test_hyperlink_text.xhtml" })
+	public String resource;
+
+	private byte[] xhtml;
+
+	@Setup
+	public void setup() throws IOException {
+		this.xhtml = ConversionPhases.load(this.resource);
+	}
+
+	@Benchmark
+	public void parse() throws IOException, SAXException {
+		ConversionPhases.parse(this.xhtml);
+	}
+
+	@Benchmark
+	public XWPFDocument map() throws IOException {
+		return ConversionPhases.map(this.xhtml);
+	}
+
+	@Benchmark
+	public long write(MappedDocument mapped) throws IOException {
+		return ConversionPhases.write(mapped.document);
+	}
+
+	@Benchmark
+	public long convert() throws IOException {
+		return ConversionPhases.convert(this.xhtml);
+	}
+
+	/**
+	 * Freshly mapped document for the write phase. POI documents cannot be
+	 * written twice, so a new one is mapped for every invocation.
+	 */
+	@State(Scope.Thread)
+	public static class MappedDocument {
+		private XWPFDocument document;
+
+		@Setup(Level.Invocation)
+		public void setup(TemplateConversionBenchmark benchmark)
+				throws IOException {
+			this.document = ConversionPhases.map(benchmark.xhtml);
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+
+/**
+ * This class holds the outcome of a batch conversion, see
+ * ConversionEngine.convertAll.
+ *
+ * @author Anton
+ *
+ * @param <S>
+ *            batch item type
+ */
+public class ConversionBatchResult<S> {
+
+	private int submitted;
+	private int completed;
+	private int succeeded;
+	private final List<Failure<S>> failures = new ArrayList<Failure<S>>();
+
+	/**
+	 * Instances are created by the engine only.
+	 */
+	ConversionBatchResult() {
+
+	}
+
+	/**
+	 * This method registers a submitted item.
+	 */
+	synchronized void itemSubmitted() {
+		this.submitted++;
+	}
+
+	/**
+	 * This method registers a completed item.
+	 *
+	 * @param source
+	 *            batch item
+	 * @param failure
+	 *            failure, null if the item was converted
+	 */
+	synchronized void itemCompleted(S source, Throwable failure) {
+		if (failure == null) {
+			this.succeeded++;
+		} else {
+			this.failures.add(new Failure<S>(source,
+					failure instanceof XWPFDocumentConversionException ? (XWPFDocumentConversionException) failure
+							: new XWPFDocumentConversionException(failure)));
+		}
+		this.completed++;
+		if (this.completed == this.submitted) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * This method waits until all submitted items are completed. Running
+	 * conversions cannot be cancelled, so the wait is not interruptible; the
+	 * interrupt status is restored afterwards.
+	 */
+	synchronized void awaitCompletion() {
+		boolean interrupted = false;
+		while (this.completed < this.submitted) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of items in the batch
+	 */
+	public synchronized int getTotal() {
+		return this.submitted;
+	}
+
+	/**
+	 * @return the number of converted items
+	 */
+	public synchronized int getSucceeded() {
+		return this.succeeded;
+	}
+
+	/**
+	 * @return the failed items, in completion order
+	 */
+	public synchronized List<Failure<S>> getFailures() {
+		return Collections.unmodifiableList(new ArrayList<Failure<S>>(
+				this.failures));
+	}
+
+	/**
+	 * @return true if all items were converted
+	 */
+	public synchronized boolean isSuccessful() {
+		return this.failures.isEmpty();
+	}
+
+	/**
+	 * Failed batch item.
+	 *
+	 * @param <S>
+	 *            batch item type
+	 */
+	public static final class Failure<S> {
+		private final S source;
+		private final XWPFDocumentConversionException cause;
+
+		private Failure(S source, XWPFDocumentConversionException cause) {
+			this.source = source;
+			this.cause = cause;
+		}
+
+		/**
+		 * @return the failed batch item
+		 */
+		public S getSource() {
+			return source;
+		}
+
+		/**
+		 * @return the failure
+		 */
+		public XWPFDocumentConversionException getCause() {
+			return cause;
+		}
+	}
+
+}
@@ -0,0 +1,314 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
+import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.converter.xwpf.handler.XWPFConverter;
+
+/**
+ * This class runs conversions concurrently on a bounded pool of workers.
+ *
+ * The number of conversions that are running or waiting is limited to the
+ * number of workers plus the queue capacity. When the limit is reached,
+ * {@link #convertAsync(InputStream, OutputStream, XWPFOptions)} blocks the
+ * caller until a conversion completes, so producers cannot run ahead of the
+ * workers.
+ *
+ * Conversions share only immutable or thread-safe state (template prototypes,
+ * DTD cache, parser pool); every conversion builds its own document. Options
+ * must not be modified while conversions that use them are running.
+ *
+ * Workers are created by the given thread factory, so any kind of thread (e.g.
+ * virtual threads on runtimes that support them) can be used.
+ *
+ * @author Anton
+ *
+ */
+public class ConversionEngine implements Closeable {
+
+	private final ThreadPoolExecutor executor;
+	private final Semaphore permits;
+
+	/**
+	 * Creates a new engine with daemon worker threads.
+	 *
+	 * @param workers
+	 *            number of worker threads
+	 * @param queueCapacity
+	 *            number of conversions that may wait for a worker
+	 */
+	public ConversionEngine(int workers, int queueCapacity) {
+		this(workers, queueCapacity, new WorkerThreadFactory());
+	}
+
+	/**
+	 * Creates a new engine.
+	 *
+	 * @param workers
+	 *            number of worker threads
+	 * @param queueCapacity
+	 *            number of conversions that may wait for a worker
+	 * @param threadFactory
+	 *            factory for worker threads
+	 */
+	public ConversionEngine(int workers, int queueCapacity,
+			ThreadFactory threadFactory) {
+		if (workers < 1 || queueCapacity < 0) {
+			throw new IllegalArgumentException("Invalid engine size: workers="
+					+ workers + "; queueCapacity=" + queueCapacity);
+		}
+		// The semaphore bounds the queue, so the queue itself never rejects
+		this.executor = new ThreadPoolExecutor(workers, workers, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				threadFactory);
+		this.permits = new Semaphore(workers + queueCapacity);
+	}
+
+	/**
+	 * This method submits a conversion of XHTML stream into DocX stream. The
+	 * call blocks while the engine is saturated.
+	 *
+	 * @param in
+	 *            input stream
+	 * @param out
+	 *            output stream
+	 * @param options
+	 *            conversion options
+	 * @return future completed when the output is written, or completed
+	 *         exceptionally with XWPFDocumentConversionException
+	 */
+	public CompletableFuture<Void> convertAsync(final InputStream in,
+			final OutputStream out, final XWPFOptions options) {
+		return this.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				XWPFConverter.getInstance().doConvert(in, out, options);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * This method converts a batch of documents on the engine workers and
+	 * waits until all of them complete. Streams are opened on the worker right
+	 * before the item is converted and closed afterwards, so large batches do
+	 * not hold more open streams than there are running conversions. A failed
+	 * item is recorded in the result and does not stop the batch.
+	 *
+	 * @param sources
+	 *            batch items
+	 * @param input
+	 *            opens the XHTML input stream of an item
+	 * @param output
+	 *            opens the DocX output stream of an item
+	 * @param options
+	 *            conversion options shared by all items
+	 * @return batch result
+	 */
+	public <S> ConversionBatchResult<S> convertAll(Iterable<S> sources,
+			final Function<? super S, ? extends InputStream> input,
+			final Function<? super S, ? extends OutputStream> output,
+			XWPFOptions options) {
+		final XWPFOptions batchOptions = options != null ? options
+				: XWPFOptions.getDefault();
+		final ConversionBatchResult<S> result = new ConversionBatchResult<S>();
+
+		for (final S source : sources) {
+			result.itemSubmitted();
+			this.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					convertItem(source, input, output, batchOptions);
+					return null;
+				}
+			}).whenComplete(new BiConsumer<Void, Throwable>() {
+				public void accept(Void ignored, Throwable failure) {
+					result.itemCompleted(source, failure);
+				}
+			});
+		}
+
+		result.awaitCompletion();
+		return result;
+	}
+
+	/**
+	 * This method converts a single batch item.
+	 *
+	 * @param source
+	 *            batch item
+	 * @param input
+	 *            opens the XHTML input stream of the item
+	 * @param output
+	 *            opens the DocX output stream of the item
+	 * @param options
+	 *            conversion options
+	 * @throws IOException
+	 */
+	private static <S> void convertItem(S source,
+			Function<? super S, ? extends InputStream> input,
+			Function<? super S, ? extends OutputStream> output,
+			XWPFOptions options) throws IOException {
+		InputStream in = input.apply(source);
+		OutputStream out = null;
+		try {
+			out = output.apply(source);
+			XWPFConverter.getInstance().doConvert(in, out, options);
+		} finally {
+			closeQuietly(in);
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * This method submits the conversion to the workers. The call blocks while
+	 * the engine is saturated.
+	 *
+	 * @param conversion
+	 *            conversion to run
+	 * @return future completed when the conversion is finished
+	 */
+	private CompletableFuture<Void> submit(final Callable<Void> conversion) {
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+
+		try {
+			this.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.completeExceptionally(new XWPFDocumentConversionException(
+					"Interrupted while waiting for a worker", e));
+			return result;
+		}
+
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					Throwable failure = null;
+					try {
+						conversion.call();
+					} catch (Throwable e) {
+						failure = e;
+					} finally {
+						// Released first: dependent actions run on this thread
+						// when the future completes and may submit conversions
+						ConversionEngine.this.permits.release();
+					}
+					if (failure == null) {
+						result.complete(null);
+					} else if (failure instanceof XWPFDocumentConversionException) {
+						result.completeExceptionally(failure);
+					} else {
+						result.completeExceptionally(new XWPFDocumentConversionException(
+								failure));
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.permits.release();
+			result.completeExceptionally(new XWPFDocumentConversionException(
+					"Conversion engine is shut down", e));
+		}
+		return result;
+	}
+
+	/**
+	 * This method closes the stream, ignoring failures.
+	 *
+	 * @param stream
+	 *            stream, may be null
+	 */
+	private static void closeQuietly(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// ignore; the conversion result is already decided
+			}
+		}
+	}
+
+	/**
+	 * This method stops accepting conversions. Submitted conversions are
+	 * completed.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * This method waits until all submitted conversions complete after
+	 * shutdown.
+	 *
+	 * @param timeout
+	 *            maximum time to wait
+	 * @param unit
+	 *            time unit
+	 * @return true if all conversions completed
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return this.executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * This method shuts the engine down and waits for submitted conversions.
+	 */
+	public void close() {
+		this.shutdown();
+		try {
+			while (!this.executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// keep waiting; conversions are never cancelled
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates named daemon worker threads.
+	 */
+	private static final class WorkerThreadFactory implements ThreadFactory {
+		private static final AtomicInteger ENGINE_NUMBER = new AtomicInteger();
+
+		private final ThreadFactory delegate = Executors.defaultThreadFactory();
+		private final String prefix = "xwpf-conversion-"
+				+ ENGINE_NUMBER.incrementAndGet() + "-";
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = this.delegate.newThread(runnable);
+			thread.setName(this.prefix + this.threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -21,6 +21,14 @@ import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
 import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
 import org.apache.poi.xwpf.converter.xwpf.handler.XWPFConverter;
 
+/**
+ * This class converts XHTML documents into DocX documents. The converter is
+ * thread-safe; conversions may run concurrently, see ConversionEngine for a
+ * bounded asynchronous API.
+ * 
+ * @author Anton
+ * 
+ */
 public class XHTML2XWPFConverter {
 
 	private static final XHTML2XWPFConverter INSTANCE = new XHTML2XWPFConverter();
@@ -13,8 +13,6 @@
  */
 package org.apache.poi.xwpf.converter.xwpf.bo;
 
-import java.util.List;
-
 import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 
@@ -46,9 +44,8 @@ public class AbstractParsingElement {
 	private boolean strikeThrough;
 	private boolean underline;
 	private String headingLevel;
-	private StringBuffer paragraphData;
+	private String paragraphData;
 	private int numberedListValue;
-	private List<AbstractParsingElement> parsingTree;
 
 	/**
 	 * Private constructor to prevent initialization.
@@ -168,16 +165,17 @@ public class AbstractParsingElement {
 	/**
 	 * @return the paragraphData
 	 */
-	public StringBuffer getParagraphData() {
+	public String getParagraphData() {
 		return paragraphData;
 	}
 
 	/**
 	 * @param paragraphData
-	 *            the paragraphData to set
+	 *            the paragraphData to set. The sequence may be reused by the
+	 *            caller, so it must not be kept.
 	 */
-	public void setParagraphData(StringBuffer paragraphData) {
-		this.paragraphData = paragraphData;
+	public void setParagraphData(CharSequence paragraphData) {
+		this.paragraphData = paragraphData.toString();
 	}
 
 	/**
@@ -399,19 +397,4 @@ public class AbstractParsingElement {
 		this.numberedListValue = numberedListValue;
 	}
 
-	/**
-	 * @return the parsingTree
-	 */
-	public List<AbstractParsingElement> getParsingTree() {
-		return parsingTree;
-	}
-
-	/**
-	 * @param parsingTree
-	 *            the parsingTree to set
-	 */
-	public void setParsingTree(List<AbstractParsingElement> parsingTree) {
-		this.parsingTree = parsingTree;
-	}
-
 }
@@ -0,0 +1,218 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.bo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.poi.xwpf.converter.xwpf.image.FileImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageCache;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.zip.FileParts;
+
+/**
+ * This class holds the images loaded for one document. Every image source is
+ * resolved once per document, however often it is referenced.
+ *
+ * Sources are resolved by the first image resolver supporting them. Images
+ * with a cache key are taken from the shared image cache, if there is one.
+ *
+ * With an executor, images are loaded in the background, so the document can
+ * be parsed while the images are read.
+ *
+ * Image files at least as large as the mapped image threshold are not read
+ * at all. They are resolved to a placeholder, and the file is copied into the
+ * package when it is written, see FileParts.
+ *
+ * POI keeps one media part per distinct picture content, so repeated images
+ * also share one media part and relationship id.
+ *
+ * @author Anton
+ *
+ */
+public class DocumentImages {
+
+	private final List<ImageResolver> resolvers;
+	private final ImageCache cache;
+	private final Executor executor;
+	private final long mappedImageThreshold;
+	// Files of the images copied into the package, by source
+	private final Map<String, File> mappedFiles = new ConcurrentHashMap<String, File>();
+	// Images of the document by source; used by the parsing thread only
+	private final Map<String, Future<byte[]>> images = new HashMap<String, Future<byte[]>>();
+	private final AtomicLong loadedBytes = new AtomicLong();
+
+	/**
+	 * Creates new document images.
+	 *
+	 * @param resolvers
+	 *            image resolvers, in order
+	 * @param cache
+	 *            image cache shared by conversions, may be null
+	 * @param executor
+	 *            executor loading the images, null to load them on the
+	 *            calling thread
+	 * @param mappedImageThreshold
+	 *            minimum size of image files copied into the package instead
+	 *            of being read, 0 to read all images
+	 */
+	public DocumentImages(List<ImageResolver> resolvers, ImageCache cache,
+			Executor executor, long mappedImageThreshold) {
+		this.resolvers = resolvers;
+		this.cache = cache;
+		this.executor = executor;
+		this.mappedImageThreshold = mappedImageThreshold;
+	}
+
+	/**
+	 * This method starts loading the image, unless it was loaded for this
+	 * document already. Without an executor the image is loaded before the
+	 * method returns.
+	 *
+	 * @param source
+	 *            src attribute of the image
+	 * @return image being loaded, or null if no resolver supports the
+	 *         source; the image content is null if the image does not exist
+	 */
+	public Future<byte[]> load(final String source) {
+		Future<byte[]> image = this.images.get(source);
+		if (image == null) {
+			final ImageResolver resolver = this.findResolver(source);
+			if (resolver == null) {
+				return null;
+			}
+			FutureTask<byte[]> task = new FutureTask<byte[]>(
+					new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws IOException {
+							return DocumentImages.this.read(resolver, source);
+						}
+					});
+			if (this.executor != null) {
+				this.executor.execute(task);
+			} else {
+				task.run();
+			}
+			this.images.put(source, task);
+			image = task;
+		}
+		return image;
+	}
+
+	/**
+	 * This method waits for the image to be loaded.
+	 *
+	 * @param image
+	 *            image returned by {@link #load(String)}
+	 * @return image content, or null if the image does not exist
+	 * @throws IOException
+	 */
+	public static byte[] get(Future<byte[]> image) throws IOException {
+		try {
+			return image.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading image");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * This method returns the file to copy into the package for the loaded
+	 * image, see FileParts.
+	 *
+	 * @param source
+	 *            src attribute of the image
+	 * @return image file, or null if the image content was loaded
+	 */
+	public File getMappedFile(String source) {
+		return this.mappedFiles.get(source);
+	}
+
+	/**
+	 * @return the number of image bytes resolved so far, not counting images
+	 *         found in the shared cache
+	 */
+	public long getLoadedBytes() {
+		return this.loadedBytes.get();
+	}
+
+	/**
+	 * This method returns the first resolver supporting the source.
+	 */
+	private ImageResolver findResolver(String source) {
+		for (ImageResolver resolver : this.resolvers) {
+			if (resolver.supports(source)) {
+				return resolver;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * This method reads the image from the shared cache or resolves it.
+	 *
+	 * @param resolver
+	 *            resolver supporting the source
+	 * @param source
+	 *            src attribute of the image
+	 * @return image content, or null if the image does not exist
+	 * @throws IOException
+	 */
+	private byte[] read(ImageResolver resolver, String source)
+			throws IOException {
+		if (this.mappedImageThreshold > 0
+				&& resolver instanceof FileImageResolver) {
+			File file = ((FileImageResolver) resolver).getFile(source);
+			if (file.isFile() && file.length() >= this.mappedImageThreshold) {
+				this.mappedFiles.put(source, file);
+				return FileParts.placeholder(resolver.getCacheKey(source));
+			}
+		}
+
+		String key = this.cache != null ? resolver.getCacheKey(source) : null;
+
+		byte[] image = key != null ? this.cache.get(key) : null;
+		if (image == null) {
+			image = resolver.resolve(source);
+			if (image == null) {
+				return null;
+			}
+			this.loadedBytes.addAndGet(image.length);
+			if (key != null) {
+				this.cache.put(key, image);
+			}
+		}
+		return image;
+	}
+
+}
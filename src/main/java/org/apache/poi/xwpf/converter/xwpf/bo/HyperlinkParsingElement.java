@@ -106,7 +106,7 @@ public class HyperlinkParsingElement extends AbstractParsingElement {
 	}
 
 	@Override
-	public void setParagraphData(StringBuffer paragraphData) {
+	public void setParagraphData(CharSequence paragraphData) {
 		// docxHyperlink = new XWPFHyperlink(this.id, this.url);
 		// CTHyperlink hyperlink =
 		// this.paragraphParsingElement.getDocxParagraph().getCTP().addNewHyperlink();
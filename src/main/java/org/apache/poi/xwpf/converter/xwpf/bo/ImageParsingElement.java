@@ -15,16 +15,19 @@ package org.apache.poi.xwpf.converter.xwpf.bo;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Future;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.util.Units;
 import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
 import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.converter.xwpf.image.DataUriImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageHeader;
+import org.apache.poi.xwpf.converter.xwpf.zip.FileParts;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFPicture;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
 
 /**
@@ -37,10 +40,15 @@ public class ImageParsingElement extends AbstractParsingElement {
 
 	private ParagraphParsingElement paragraphParsingElement;
 	private int pictureType;
+	private String source;
 	private String filePath;
 	private double width;
 	private double height;
 	private boolean webBasedProcessing;
+	// Run reserved for the picture and the image being loaded
+	private XWPFRun run;
+	private DocumentImages images;
+	private Future<byte[]> image;
 
 	/**
 	 * Constructor
@@ -92,6 +100,21 @@ public class ImageParsingElement extends AbstractParsingElement {
 		this.pictureType = pictureType;
 	}
 
+	/**
+	 * @return the source
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @param source
+	 *            the src attribute to set
+	 */
+	public void setSource(String source) {
+		this.source = source;
+	}
+
 	/**
 	 * @return the filePath
 	 */
@@ -138,40 +161,83 @@ public class ImageParsingElement extends AbstractParsingElement {
 	}
 
 	/**
-	 * This method creates image.
+	 * This method creates image. The run of the image is created at once, so
+	 * it keeps its position in the paragraph, and the image starts loading
+	 * through the images of the document. The picture is added to the run by
+	 * {@link #bindImage()}.
+	 * 
+	 * @param images
+	 *            images loaded for the document
 	 */
-	public void createImage() {
-		XWPFRun run = this.paragraphParsingElement.getDocxParagraph()
-				.createRun();
+	public void createImage(DocumentImages images) {
+		this.run = this.paragraphParsingElement.getDocxParagraph().createRun();
+
+		// If file is processed on the web (loaded from client's browser)
+		// the image files will not be available for conversion and no
+		// resolver supports them. Thus, we only create images place-holders.
+		this.images = images;
+		this.image = images.load(this.source);
+	}
+
+	/**
+	 * This method waits for the image to be loaded and adds the picture
+	 * to the run created by {@link #createImage(DocumentImages)}. The
+	 * picture type and, if the style does not set them, the width and height
+	 * are read from the image header; the file extension is used for images
+	 * in unknown formats and for place-holders.
+	 * 
+	 * @param fileParts
+	 *            parts copied from files when the document is written; the
+	 *            picture is added there if its file is not loaded
+	 */
+	public void bindImage(FileParts fileParts) {
 		try {
 
 			InputStream inputStream = null;
-			File file = null;
 			String fileName = null;
 			byte[] picbytes = null;
-			this.pictureType = this.getImageType(this.getFilePath());
+			File mappedFile = null;
+			if (this.image != null) {
+				picbytes = DocumentImages.get(this.image);
+				mappedFile = this.images.getMappedFile(this.source);
+			}
+
+			ImageHeader header = null;
+			if (mappedFile != null) {
+				header = ImageHeader.read(mappedFile);
+			} else if (picbytes != null) {
+				header = ImageHeader.read(picbytes);
+			}
+			if (header != null) {
+				this.pictureType = header.getPictureType();
+				this.setIntrinsicSize(header);
+			} else {
+				this.pictureType = this
+						.getImageType(this.filePath != null ? this.filePath
+								: this.source);
+			}
 
-			// If file is processed on the web (loaded from client's browser)
-			// the image files will not be available for conversion. Thus, we
-			// only create images place-holders.
 			// We will also create only placeholder if the file is not found.
-			if (webBasedProcessing) {
+			if (this.image == null) {
 				inputStream = new ByteArrayInputStream("".getBytes());
 			} else {
-				try {
-					file = new File(this.filePath);
-					inputStream = new FileInputStream(file);
-					fileName = file.getName();
-
-				} catch (FileNotFoundException e) {
+				if (picbytes != null) {
+					fileName = this.getPictureName();
+				} else {
 					picbytes = "".getBytes();
-					inputStream = new ByteArrayInputStream(picbytes);
 					fileName = "Unknown.jpg";
 				}
+				inputStream = new ByteArrayInputStream(picbytes);
 			}
 
-			run.addPicture(inputStream, this.pictureType, fileName,
-					Units.toEMU(this.width), Units.toEMU(this.height));
+			XWPFPicture picture = this.run.addPicture(inputStream,
+					this.pictureType, fileName, Units.toEMU(this.width),
+					Units.toEMU(this.height));
+			if (mappedFile != null) {
+				fileParts.add(picture.getPictureData().getPackagePart()
+						.getPartName().getName(), mappedFile);
+			}
+			this.image = null;
 
 		} catch (InvalidFormatException e) {
 			e.printStackTrace();
@@ -184,15 +250,57 @@ public class ImageParsingElement extends AbstractParsingElement {
 	}
 
 	/**
-	 * This method returns image type based on provided file path.
+	 * This method sets the width and height not set by the style to the size
+	 * of the image, keeping the aspect ratio if only one of them is set.
+	 * 
+	 * @param header
+	 *            image header
+	 */
+	private void setIntrinsicSize(ImageHeader header) {
+		if (header.getWidth() == 0 || header.getHeight() == 0) {
+			return;
+		}
+		if (this.width == 0 && this.height == 0) {
+			this.width = header.getWidth();
+			this.height = header.getHeight();
+		} else if (this.width == 0) {
+			this.width = this.height * header.getWidth() / header.getHeight();
+		} else if (this.height == 0) {
+			this.height = this.width * header.getHeight() / header.getWidth();
+		}
+	}
+
+	/**
+	 * This method returns the name of the picture: the last segment of the
+	 * path, none for data URIs, which have no file path.
+	 * 
+	 * @return picture name
+	 */
+	private String getPictureName() {
+		if (this.filePath == null) {
+			return null;
+		}
+		return new File(this.filePath).getName();
+	}
+
+	/**
+	 * This method returns image type based on provided file path. The type
+	 * of data URIs is taken from their media type.
 	 * 
 	 * @param filePath
-	 *            file path
+	 *            file path, or data URI
 	 * @return image type
 	 */
 	private int getImageType(String filePath) {
 		int result = 0;
 
+		if (DataUriImageResolver.getInstance().supports(filePath)) {
+			String mediaType = DataUriImageResolver.getMediaType(filePath);
+			filePath = "."
+					+ mediaType.substring(mediaType.indexOf('/') + 1)
+							.replace("x-ms-", "").replace("x-", "");
+		}
+
 		if (filePath.endsWith(".emf")) {
 			result = XWPFDocument.PICTURE_TYPE_EMF;
 		} else if (filePath.endsWith(".wmf")) {
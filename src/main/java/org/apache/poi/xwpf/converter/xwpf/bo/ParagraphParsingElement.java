@@ -38,7 +38,7 @@ import org.openxmlformats.schemas.wordprocessingml.x2006.main.STHighlightColor;
 public class ParagraphParsingElement extends AbstractParsingElement {
 
 	private AbstractParsingElement containingElement;
-	private StringBuffer paragraphData;
+	private String paragraphData;
 	private XWPFParagraph docxParagraph;
 	private boolean horizontalLine; // to support HR tag
 	private String fontColor;
@@ -60,7 +60,7 @@ public class ParagraphParsingElement extends AbstractParsingElement {
 	 */
 	public ParagraphParsingElement(boolean topLevel,
 			AbstractParsingElement containingElement,
-			StringBuffer paragraphData, XWPFDocument document) {
+			String paragraphData, XWPFDocument document) {
 		super(ElementType.PARAGRAPH, topLevel, document);
 		this.initializeCommonParagraphFields();
 		this.containingElement = containingElement;
@@ -150,16 +150,15 @@ public class ParagraphParsingElement extends AbstractParsingElement {
 	/**
 	 * @return the paragraphData
 	 */
-	public StringBuffer getParagraphData() {
+	public String getParagraphData() {
 		return paragraphData;
 	}
 	@Override
-	public void setParagraphData(StringBuffer paragraphData) {
+	public void setParagraphData(CharSequence paragraphData) {
 
 		//System.out.println("Setting paragraphData="+paragraphData);
-		this.paragraphData = paragraphData;
-
 		String para = paragraphData.toString();
+		this.paragraphData = para;
 
 		if (this.isBullet()) {
 			this.setListParagraphStyle();
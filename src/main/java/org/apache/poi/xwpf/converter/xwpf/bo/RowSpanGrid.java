@@ -0,0 +1,116 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.bo;
+
+import java.util.Arrays;
+
+/**
+ * This class records which positions of a table are covered by row spans. For
+ * every covered row and cell number it holds the cell starting the span, so
+ * lookups take constant time. Only rows with row spans get a cell array, and
+ * rows can be released once they are complete, so a long table only keeps
+ * the rows of the open row spans.
+ *
+ * The grid is used by the parsing thread only and is not synchronized.
+ *
+ * @author Anton
+ *
+ */
+final class RowSpanGrid {
+
+	private static final int INITIAL_SIZE = 8;
+
+	// Starting cells by row number minus first row and cell number
+	private TableCellParsingElement[][] rows = new TableCellParsingElement[INITIAL_SIZE][];
+	private int firstRow;
+
+	/**
+	 * This method records that the position is covered by the row span of the
+	 * cell. If the position is covered already, the first cell is kept.
+	 *
+	 * @param rowNum
+	 *            row number
+	 * @param cellNum
+	 *            cell number
+	 * @param startingCell
+	 *            first cell in the row span
+	 */
+	void add(int rowNum, int cellNum, TableCellParsingElement startingCell) {
+		int row = rowNum - this.firstRow;
+		if (row < 0) {
+			// released
+			return;
+		}
+		if (row >= this.rows.length) {
+			this.rows = Arrays.copyOf(this.rows,
+					Math.max(this.rows.length * 2, row + 1));
+		}
+		TableCellParsingElement[] cells = this.rows[row];
+		if (cells == null) {
+			cells = new TableCellParsingElement[Math.max(INITIAL_SIZE,
+					cellNum + 1)];
+			this.rows[row] = cells;
+		} else if (cellNum >= cells.length) {
+			cells = Arrays.copyOf(cells, Math.max(cells.length * 2,
+					cellNum + 1));
+			this.rows[row] = cells;
+		}
+		if (cells[cellNum] == null) {
+			cells[cellNum] = startingCell;
+		}
+	}
+
+	/**
+	 * This method returns the cell whose row span covers the position.
+	 *
+	 * @param rowNum
+	 *            row number
+	 * @param cellNum
+	 *            cell number
+	 * @return first cell in the row span, or null if the position is not
+	 *         covered
+	 */
+	TableCellParsingElement get(int rowNum, int cellNum) {
+		int row = rowNum - this.firstRow;
+		if (row < 0 || row >= this.rows.length || cellNum < 0) {
+			return null;
+		}
+		TableCellParsingElement[] cells = this.rows[row];
+		return cells != null && cellNum < cells.length ? cells[cellNum] : null;
+	}
+
+	/**
+	 * This method releases the rows before the given row. They are not
+	 * looked up anymore.
+	 *
+	 * @param rowNum
+	 *            first row number to keep
+	 */
+	void release(int rowNum) {
+		int count = rowNum - this.firstRow;
+		if (count <= 0) {
+			return;
+		}
+		if (count < this.rows.length) {
+			System.arraycopy(this.rows, count, this.rows, 0, this.rows.length
+					- count);
+			Arrays.fill(this.rows, this.rows.length - count, this.rows.length,
+					null);
+		} else {
+			Arrays.fill(this.rows, null);
+		}
+		this.firstRow = rowNum;
+	}
+
+}
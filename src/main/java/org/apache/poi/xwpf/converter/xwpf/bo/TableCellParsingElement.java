@@ -17,21 +17,16 @@ import java.math.BigInteger;
 
 import org.apache.poi.xwpf.converter.xwpf.common.ConversionUtil;
 import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
-import org.apache.poi.xwpf.converter.xwpf.common.HTMLConstants;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFTableCell;
 import org.apache.poi.xwpf.usermodel.XWPFTableRow;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTBorder;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTDecimalNumber;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageSz;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblGrid;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblWidth;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTc;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTcBorders;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTcPr;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTVMerge;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.STBorder;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.STMerge;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.STTblWidth;
 
@@ -47,6 +42,11 @@ public class TableCellParsingElement extends AbstractParsingElement {
 	private XWPFTableCell docxTableCell;
 	private TableRowParsingElement tableRowParsingElement;
 	private int rowSpanCellNumber;
+	// Index of the cell in the row; width and column span set by the XHTML,
+	// 0 if not set
+	private int cellIndex;
+	private int width;
+	private int columnSpan;
 
 	/**
 	 * Constructor
@@ -66,25 +66,28 @@ public class TableCellParsingElement extends AbstractParsingElement {
 
 		this.addRowSpanCellIfNeeded();
 
-		this.docxTableCell = this.createNewCell();
+		this.docxTableCell = this.createNewCell(0);
+		this.cellIndex = this.tableRowParsingElement.getCellCount() - 1;
 	    //System.out.println("Created new CELL");
 
 	}
 
 	/**
-	 * This method creates new cell.
+	 * This method creates new cell. The cell width is written when the row is
+	 * complete, see TableParsingElement.completeRow.
 	 * 
+	 * @param width
+	 *            cell width in table width units, 0 if not set
 	 * @return new cell
 	 */
-	private XWPFTableCell createNewCell() {
+	private XWPFTableCell createNewCell(int width) {
 		XWPFTableCell cell = this.docxTableRow.createCell();
 		CTTc cttc = cell.getCTTc();
 		CTTcPr cTTcPr = this.getCTTcPr(cttc);
-		this.createVisibleBorder(cTTcPr, HTMLConstants.COLOR_GREY);
 		CTTblWidth cTTblWidth = this.getCTTblWidth(cTTcPr);
-		cTTblWidth.setW(new BigInteger("0"));
+		cTTblWidth.setW(BigInteger.ZERO);
 		cTTblWidth.setType(STTblWidth.AUTO);
-		this.addNewGridSpanColumn();
+		this.tableRowParsingElement.addCell(width);
 		this.getCTPPr(cttc);
 		return cell;
 	}
@@ -110,35 +113,36 @@ public class TableCellParsingElement extends AbstractParsingElement {
 	 * This method adds row span cell if needed.
 	 */
 	private void addRowSpanCellIfNeeded() {
-		int rowNum = this.docxTableRow.getTable().getNumberOfRows();
-		int cellNum = this.docxTableRow.getTableCells().size();
+		int rowNum = this.tableRowParsingElement.getTableParsingElement()
+				.getRowCount();
+		int cellNum = this.tableRowParsingElement.getCellCount();
 		if (this.tableRowParsingElement.getTableParsingElement()
 				.containsRowCellAtPosition(rowNum, cellNum)) {
 
 			// System.out.println("Creating new rowspan cell at positions:"
 			// + this.docxTableRow.getTable().getNumberOfRows() + "; "
 			// + this.docxTableRow.getTableCells().size());
-			XWPFTableCell rowSpanCell = this.createNewCell();
-
 			TableCellParsingElement firstRowSpanCell = this.tableRowParsingElement
 					.getTableParsingElement().getFirstRowSpanCell(rowNum,
 							cellNum);
 
-			CTTcPr pr = this.getCTTcPr(rowSpanCell.getCTTc());
+			XWPFTableCell rowSpanCell = this.createNewCell(firstRowSpanCell
+					.getWidth());
 
-			if (firstRowSpanCell.getDocxTableCell().getCTTc().getTcPr() != null
-					&& firstRowSpanCell.getDocxTableCell().getCTTc().getTcPr()
-							.getTcW() != null) {
-				pr.setTcW(firstRowSpanCell.getDocxTableCell().getCTTc()
-						.getTcPr().getTcW());
+			CTTcPr pr = this.getCTTcPr(rowSpanCell.getCTTc());
 
+			// The first cell is not read, its row may have been written out
+			// already. Without a width set by the XHTML, the width of the
+			// first cell is computed for its own row, so the cell gets its own
+			if (firstRowSpanCell.getWidth() != 0) {
+				CTTblWidth cTTblWidth = this.getCTTblWidth(pr);
+				cTTblWidth.setW(BigInteger.valueOf(firstRowSpanCell.getWidth()));
+				cTTblWidth.setType(STTblWidth.DXA);
 			}
 
-			if (firstRowSpanCell.getDocxTableCell().getCTTc().getTcPr() != null
-					&& firstRowSpanCell.getDocxTableCell().getCTTc().getTcPr()
-							.getGridSpan() != null) {
-				pr.setGridSpan(firstRowSpanCell.getDocxTableCell().getCTTc()
-						.getTcPr().getGridSpan());
+			if (firstRowSpanCell.getColumnSpan() != 0) {
+				pr.addNewGridSpan().setVal(
+						BigInteger.valueOf(firstRowSpanCell.getColumnSpan()));
 			}
 
 			CTVMerge merge = pr.getVMerge();
@@ -148,8 +152,6 @@ public class TableCellParsingElement extends AbstractParsingElement {
 
 			merge.setVal(STMerge.CONTINUE);
 
-			this.createVisibleBorder(pr, HTMLConstants.COLOR_GREY);
-
 		}
 	}
 
@@ -168,45 +170,6 @@ public class TableCellParsingElement extends AbstractParsingElement {
 		return pr;
 	}
 
-	/**
-	 * This method adds new grid span column.
-	 */
-	private void addNewGridSpanColumn() {
-
-		int rowNum = this.docxTableRow.getTable().getNumberOfRows();
-		if (rowNum == 1 && this.docxTableRow.getTable().getCTTbl() != null
-				&& this.docxTableRow.getTable().getCTTbl().getTblGrid() == null) {
-			CTTblGrid grid = this.docxTableRow.getTable().getCTTbl()
-					.addNewTblGrid();
-			grid.addNewGridCol();
-		}
-
-	}
-
-	/**
-	 * This class creates visible border. The default color is grey.
-	 * 
-	 * @param pr
-	 *            CTTcPr
-	 * @param color
-	 *            HTML color to use
-	 */
-	private void createVisibleBorder(CTTcPr pr, String color) {
-		CTTcBorders borders = pr.addNewTcBorders();
-		CTBorder border = borders.addNewBottom();
-		border.setVal(STBorder.THICK);
-		border.setColor(color);
-		CTBorder border1 = borders.addNewLeft();
-		border1.setVal(STBorder.THICK);
-		border1.setColor(color);
-		CTBorder border2 = borders.addNewRight();
-		border2.setVal(STBorder.THICK);
-		border2.setColor(color);
-		CTBorder border3 = borders.addNewTop();
-		border3.setVal(STBorder.THICK);
-		border3.setColor(color);
-	}
-
 	/**
 	 * @return the docxTableRow
 	 */
@@ -273,16 +236,24 @@ public class TableCellParsingElement extends AbstractParsingElement {
 		cTTblWidth.setType(STTblWidth.DXA);
 
 		if (usePercentage) {
-			CTPageSz pageSize = this.getDocument().getDocument().getBody()
-					.getSectPr().getPgSz();
-			BigInteger documentWidth = pageSize.getW();
-			int tableWidth = (int) ((documentWidth.intValue() / 100) * width);
-			cTTblWidth.setW(BigInteger.valueOf(tableWidth));
+			int documentWidth = this.tableRowParsingElement
+					.getTableParsingElement().getDocumentWidth();
+			this.width = (int) ((documentWidth / 100) * width);
 
 		} else {
-			cTTblWidth.setW(BigInteger.valueOf(ConversionUtil
-					.convertTableCellPixelsToWidthUnits(width)));
+			this.width = ConversionUtil
+					.convertTableCellPixelsToWidthUnits(width);
 		}
+		cTTblWidth.setW(BigInteger.valueOf(this.width));
+		this.tableRowParsingElement.setCellWidth(this.cellIndex, this.width);
+	}
+
+	/**
+	 * @return the cell width in table width units as set by the XHTML, 0 if
+	 *         not set
+	 */
+	public int getWidth() {
+		return width;
 	}
 
 	/**
@@ -316,7 +287,15 @@ public class TableCellParsingElement extends AbstractParsingElement {
 			gridSpan = cTTcPr.addNewGridSpan();
 		}
 		gridSpan.setVal(BigInteger.valueOf(columnSpan));
+		this.columnSpan = columnSpan;
+
+	}
 
+	/**
+	 * @return the column span as set by the XHTML, 0 if not set
+	 */
+	public int getColumnSpan() {
+		return columnSpan;
 	}
 
 	/**
@@ -329,8 +308,9 @@ public class TableCellParsingElement extends AbstractParsingElement {
 
 		// System.out.println("Setting rowSpan="+rowSpan);
 		if (rowSpan > 1) {
-			int currentRow = this.docxTableRow.getTable().getNumberOfRows();
-			this.rowSpanCellNumber = this.docxTableRow.getTableCells().size() - 1;
+			int currentRow = this.tableRowParsingElement.getTableParsingElement()
+				.getRowCount();
+			this.rowSpanCellNumber = this.cellIndex;
 			for (int i = 0; i < rowSpan; i++) {
 				this.tableRowParsingElement.getTableParsingElement()
 						.addRowSpanCell((currentRow + i), this);
@@ -349,7 +329,7 @@ public class TableCellParsingElement extends AbstractParsingElement {
 	}
 
 	@Override
-	public void setParagraphData(StringBuffer paragraphData) {
+	public void setParagraphData(CharSequence paragraphData) {
 
 		//System.out.println("TableCellParsingElement::Setting paragraphData="
 		//		+ paragraphData);
@@ -14,28 +14,26 @@
 package org.apache.poi.xwpf.converter.xwpf.bo;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.poi.util.Units;
 import org.apache.poi.xwpf.converter.xwpf.common.ConversionUtil;
 import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
 import org.apache.poi.xwpf.converter.xwpf.common.HTMLConstants;
 import org.apache.poi.xwpf.converter.xwpf.common.StyleConstants;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFTable;
-import org.apache.poi.xwpf.usermodel.XWPFTable.XWPFBorderType;
 import org.apache.poi.xwpf.usermodel.XWPFTableCell;
 import org.apache.poi.xwpf.usermodel.XWPFTableRow;
 import org.apache.xmlbeans.XmlCursor;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTBorder;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageSz;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTbl;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblBorders;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblGrid;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblGridCol;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblWidth;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STBorder;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.STTblWidth;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -50,8 +48,15 @@ import org.w3c.dom.NodeList;
 public class TableParsingElement extends AbstractParsingElement {
 
 	private XWPFTable docxTable;
-	private Map<Integer, ArrayList<TableCellParsingElement>> rowSpanCells = Collections
-			.synchronizedMap(new HashMap<Integer, ArrayList<TableCellParsingElement>>());
+	private ParagraphParsingElement captionParagraph;
+	private final RowSpanGrid rowSpanCells = new RowSpanGrid();
+	private final int documentWidth;
+	// Grid column widths computed from the completed rows, -1 if not computed
+	private int[] columnWidths = new int[0];
+	// Rows created so far and rows written to the output and removed from
+	// the table; counted here as XWPFTable counts its rows in the XML
+	private int rowCount;
+	private int flushedRows;
 
 	/**
 	 * Constructor
@@ -64,11 +69,14 @@ public class TableParsingElement extends AbstractParsingElement {
 	public TableParsingElement(boolean topLevelElement, XWPFDocument document) {
 		super(ElementType.TABLE, topLevelElement, document);
 		docxTable = document.createTable();
+		this.documentWidth = this.readDocumentWidth();
 
 		// Remove default rows
 		for (int i = 0; i <= docxTable.getNumberOfRows(); i++) {
 			docxTable.removeRow(i);
 		}
+
+		this.createVisibleBorder(HTMLConstants.COLOR_GREY);
 	}
 
 	/**
@@ -87,33 +95,37 @@ public class TableParsingElement extends AbstractParsingElement {
 	}
 
 	/**
-	 * This method sets border on the table
+	 * This method creates visible table borders, which apply to the outer edges
+	 * and between all cells, so the cells do not need borders of their own.
 	 * 
-	 * @param visible
-	 *            visible if true
-	 * @param thick
-	 *            if true, thick
-	 * @param size
-	 *            size
-	 * @param space
-	 *            space
+	 * @param color
+	 *            HTML color to use
 	 */
-	public void setBorder(boolean visible, boolean thick, int size, int space) {
-		XWPFBorderType borderToUse = XWPFBorderType.SINGLE;
-		String color = HTMLConstants.COLOR_WHITE;
-		if (thick) {
-			borderToUse = XWPFBorderType.THICK;
-		}
-		if (visible) {
-			color = HTMLConstants.COLOR_GREY;
+	private void createVisibleBorder(String color) {
+		CTTblPr cTTblPr = this.getCTTblPr();
+		if (cTTblPr.isSetTblBorders()) {
+			cTTblPr.unsetTblBorders();
 		}
-		// System.out.println("setBorder. visible=" + visible + "; thick=" +
-		// thick
-		// + "; size=" + size + "; color=" + color);
-		docxTable.setInsideHBorder(borderToUse, Units.toEMU(size),
-				Units.toEMU(space), color);
-		docxTable.setInsideVBorder(borderToUse, Units.toEMU(size),
-				Units.toEMU(space), color);
+		CTTblBorders borders = cTTblPr.addNewTblBorders();
+		this.setVisibleBorder(borders.addNewTop(), color);
+		this.setVisibleBorder(borders.addNewLeft(), color);
+		this.setVisibleBorder(borders.addNewBottom(), color);
+		this.setVisibleBorder(borders.addNewRight(), color);
+		this.setVisibleBorder(borders.addNewInsideH(), color);
+		this.setVisibleBorder(borders.addNewInsideV(), color);
+	}
+
+	/**
+	 * This method sets a thick border of the given color.
+	 * 
+	 * @param border
+	 *            CTBorder
+	 * @param color
+	 *            HTML color to use
+	 */
+	private void setVisibleBorder(CTBorder border, String color) {
+		border.setVal(STBorder.THICK);
+		border.setColor(color);
 	}
 
 	/**
@@ -149,8 +161,7 @@ public class TableParsingElement extends AbstractParsingElement {
 	public void setWidth(double width, boolean usePercentage) {
 
 		if (usePercentage) {
-			BigInteger documentWidth = this.getDocumentWidth();
-			int tableWidth = (int) ((documentWidth.intValue() / 100) * width);
+			int tableWidth = (int) ((this.documentWidth / 100) * width);
 			docxTable.setWidth(tableWidth);
 
 		} else {
@@ -162,7 +173,7 @@ public class TableParsingElement extends AbstractParsingElement {
 	}
 
 	/**
-	 * This method adds row span cell information to the rowspan collection.
+	 * This method adds row span cell information to the rowspan grid.
 	 * 
 	 * @param rowNum
 	 *            row number
@@ -170,53 +181,21 @@ public class TableParsingElement extends AbstractParsingElement {
 	 *            first cell in the row span
 	 */
 	public void addRowSpanCell(int rowNum, TableCellParsingElement startingCell) {
-		Integer key = new Integer(rowNum);
-		ArrayList<TableCellParsingElement> values = this.rowSpanCells.get(key);
-
-		if (values == null) {
-			values = new ArrayList<TableCellParsingElement>();
-		}
-
-		if (!values.contains(startingCell)) {
-			values.add(startingCell);
-		}
-		this.rowSpanCells.put(key, values);
-
-		// System.out.println("Added new row span cell to the map at: " + key
-		// + " with values: " + values.toArray());
+		this.rowSpanCells.add(rowNum, startingCell.getRowSpanCellNumber(),
+				startingCell);
 	}
 
 	/**
-	 * This method checks if row span collection contains a cell in a particular
-	 * position.
+	 * This method checks if a row span covers a particular position.
 	 * 
 	 * @param rowNum
 	 *            row number
 	 * @param cellNum
 	 *            cell number
-	 * @return if true, contains a cell in a particular position
+	 * @return if true, a row span covers the position
 	 */
 	public boolean containsRowCellAtPosition(int rowNum, int cellNum) {
-		boolean result = false;
-
-		Integer key = new Integer(rowNum);
-
-		ArrayList<TableCellParsingElement> values = this.rowSpanCells.get(key);
-
-		if (values != null) {
-
-			for (TableCellParsingElement cell : values) {
-				if (cell.getRowSpanCellNumber() == cellNum) {
-					result = true;
-					break;
-				}
-			}
-		}
-
-		// System.out.println("Checking if has rowspan at rowNum: " + rowNum
-		// + " with cellNum: " + cellNum + "; result = " + result);
-
-		return result;
+		return this.rowSpanCells.get(rowNum, cellNum) != null;
 	}
 
 	/**
@@ -227,39 +206,91 @@ public class TableParsingElement extends AbstractParsingElement {
 	 *            row number
 	 * @param cellNum
 	 *            cell number
-	 * @return first row span cell
+	 * @return first row span cell, or null if no row span covers the position
 	 */
 	public TableCellParsingElement getFirstRowSpanCell(int rowNum, int cellNum) {
-		TableCellParsingElement result = null;
-
-		Integer key = new Integer(rowNum);
+		return this.rowSpanCells.get(rowNum, cellNum);
+	}
 
-		ArrayList<TableCellParsingElement> values = this.rowSpanCells.get(key);
+	/**
+	 * This method completes the layout of a row when all its cells are
+	 * created. Cells without a width get an equal share of the document
+	 * width, which also becomes the width of their grid columns.
+	 * 
+	 * @param row
+	 *            completed row
+	 */
+	public void completeRow(TableRowParsingElement row) {
+		int cellCount = row.getCellCount();
+		if (cellCount > this.columnWidths.length) {
+			int columnCount = this.columnWidths.length;
+			this.columnWidths = Arrays.copyOf(this.columnWidths, cellCount);
+			Arrays.fill(this.columnWidths, columnCount, cellCount, -1);
+		}
+		if (cellCount == 0) {
+			return;
+		}
 
-		for (TableCellParsingElement cell : values) {
-			if (cell.getRowSpanCellNumber() == cellNum) {
-				result = cell;
-				break;
+		int columnWidth = this.documentWidth / cellCount;
+		BigInteger cellWidth = null;
+		List<XWPFTableCell> cells = null;
+		for (int i = 0; i < cellCount; i++) {
+			if (row.getCellWidth(i) == 0) {
+				if (cellWidth == null) {
+					cellWidth = BigInteger.valueOf(columnWidth);
+					cells = row.getDocxTableRow().getTableCells();
+				}
+				CTTblWidth cTTblWidth = cells.get(i).getCTTc().getTcPr()
+						.getTcW();
+				cTTblWidth.setW(cellWidth);
+				cTTblWidth.setType(STTblWidth.DXA);
+				this.columnWidths[i] = columnWidth;
 			}
 		}
+	}
+
+	/**
+	 * This method records that the rows of the table were written to the
+	 * output and removed from the table. Row spans are only kept for the
+	 * following rows.
+	 * 
+	 * @param rows
+	 *            number of written rows
+	 */
+	public void rowsFlushed(int rows) {
+		this.flushedRows += rows;
+		this.rowSpanCells.release(this.flushedRows + 1);
+	}
 
-		return result;
+	/**
+	 * This method adds a new row after the last row. XWPFTable.insertNewTableRow
+	 * counts and scans the existing rows; appending the row and adding it to
+	 * the rows of the table (getRows returns them, not a copy) takes constant
+	 * time.
+	 * 
+	 * @return new row
+	 */
+	public XWPFTableRow insertNewRow() {
+		XWPFTableRow row = new XWPFTableRow(this.docxTable.getCTTbl()
+				.addNewTr(), this.docxTable);
+		this.docxTable.getRows().add(row);
+		this.rowCount++;
+		return row;
 	}
 
 	/**
-	 * @return the rowSpanCells
+	 * @return the number of rows created so far, including the rows written
+	 *         to the output
 	 */
-	public Map<Integer, ArrayList<TableCellParsingElement>> getRowSpanCells() {
-		return rowSpanCells;
+	public int getRowCount() {
+		return this.rowCount;
 	}
 
 	/**
-	 * @param rowSpanCells
-	 *            the rowSpanCells to set
+	 * @return the number of rows held in memory
 	 */
-	public void setRowSpanCells(
-			Map<Integer, ArrayList<TableCellParsingElement>> rowSpanCells) {
-		this.rowSpanCells = rowSpanCells;
+	public int getUnflushedRowCount() {
+		return this.rowCount - this.flushedRows;
 	}
 
 	/**
@@ -271,53 +302,26 @@ public class TableParsingElement extends AbstractParsingElement {
 	public void populateMetaDataUponCompletion() {
 
 		CTTbl cTTbl = docxTable.getCTTbl();
-		List<CTTblGridCol> cols = null;
-		CTTblGrid grid = null;
-
-		if (cTTbl != null) {
-
-			this.getCTTblPr();
-
-			grid = this.getCTTblGrid(cTTbl);
-			cols = grid.getGridColList();
-
+		if (cTTbl == null) {
+			return;
 		}
 
-		for (XWPFTableRow row : this.docxTable.getRows()) {
-
-			int diff = row.getTableCells().size() - cols.size();
-
-			for (int i = 0; i < diff; i++) {
-				grid.addNewGridCol();
-			}
-
-			int i = 0;
-
-			for (XWPFTableCell cell : row.getTableCells()) {
-
-				CTTblGridCol gridColumn = cols.get(i);
-
-				if (cell.getCTTc().getTcPr().getTcW().getW().intValue() == 0) {
-					BigInteger columnWidth = this.getDocumentWidth().divide(
-							BigInteger.valueOf(row.getTableCells().size()));
-					cell.getCTTc().getTcPr().getTcW().setW(columnWidth);
-					cell.getCTTc().getTcPr().getTcW().setType(STTblWidth.DXA);
-					gridColumn.setW(columnWidth);
-
+		this.getCTTblPr();
+		CTTblGrid grid = this.getCTTblGrid(cTTbl);
+
+		BigInteger defaultWidth = null;
+		for (int i = 0; i < this.columnWidths.length; i++) {
+			BigInteger columnWidth;
+			if (this.columnWidths[i] >= 0) {
+				columnWidth = BigInteger.valueOf(this.columnWidths[i]);
+			} else {
+				if (defaultWidth == null) {
+					defaultWidth = BigInteger.valueOf(this.documentWidth
+							/ this.columnWidths.length);
 				}
-				i++;
-			}
-		}
-
-		List<CTTblGridCol> tableCols = grid.getGridColList();
-		for (CTTblGridCol col : tableCols) {
-			// System.out.println("tblGridCol.getW()=" + col.getW());
-			if (col.getW() == null) {
-				BigInteger columnWidth = this.getDocumentWidth().divide(
-						BigInteger.valueOf(tableCols.size()));
-				col.setW(columnWidth);
-
+				columnWidth = defaultWidth;
 			}
+			grid.addNewGridCol().setW(columnWidth);
 		}
 
 	}
@@ -353,22 +357,36 @@ public class TableParsingElement extends AbstractParsingElement {
 	}
 
 	/**
-	 * This method returns document width.
+	 * This method reads document width from the page size.
 	 * 
 	 * @return document width
 	 */
-	private BigInteger getDocumentWidth() {
+	private int readDocumentWidth() {
 		CTPageSz pageSize = this.getDocument().getDocument().getBody()
 				.getSectPr().getPgSz();
-		BigInteger documentWidth = pageSize.getW();
+		return pageSize.getW().intValue();
+	}
+
+	/**
+	 * @return the document width in table width units
+	 */
+	public int getDocumentWidth() {
 		return documentWidth;
 	}
 
 	/**
-	 * This method can be called only for table caption.
+	 * This method can be called only for table caption. The first call creates
+	 * the caption; text that follows within the same caption is added to it.
 	 */
 	@Override
-	public void setParagraphData(StringBuffer paragraphData) {
+	public void setParagraphData(CharSequence paragraphData) {
+		if (this.captionParagraph != null) {
+			this.captionParagraph.setParagraphData(paragraphData);
+			return;
+		}
+
+		String caption = paragraphData.toString();
+
 		// Initialize the table Pr
 		this.getCTTblPr();
 
@@ -385,7 +403,7 @@ public class TableParsingElement extends AbstractParsingElement {
 						StyleConstants.TBL_CAPTION);
 		node.setAttributeNS(
 				StyleConstants.HTTP_SCHEMAS_OPENXMLFORMATS_ORG_WORDPROCESSINGML_2006_MAIN,
-				StyleConstants.VAL, paragraphData.toString());
+				StyleConstants.VAL, caption);
 		NodeList nodeList = tableNode.getChildNodes();
 
 		for (int i = 0; i < nodeList.getLength(); i++) {
@@ -400,16 +418,11 @@ public class TableParsingElement extends AbstractParsingElement {
 		// System.out.println("CTTbl()=" + this.docxTable.getCTTbl());
 
 		XmlCursor cursor = this.docxTable.getCTTbl().newCursor();
-		ParagraphParsingElement captionParagraph = new ParagraphParsingElement(
-				cursor, this.getDocument());
-		captionParagraph.setParagraphData(paragraphData);
-		// Add new paragraph to the parsing tree
-		this.getParsingTree().add(this.getParsingTree().lastIndexOf(this),
-				captionParagraph);
-		captionParagraph.getDocxParagraph().setStyle(
+		this.captionParagraph = new ParagraphParsingElement(cursor,
+				this.getDocument());
+		this.captionParagraph.setParagraphData(caption);
+		this.captionParagraph.getDocxParagraph().setStyle(
 				StyleConstants.STYLE_CAPTION);
-
-		super.setMayContainText(false);
 	}
 
 }
@@ -13,6 +13,8 @@
  */
 package org.apache.poi.xwpf.converter.xwpf.bo;
 
+import java.util.Arrays;
+
 import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFTable;
@@ -29,6 +31,9 @@ public class TableRowParsingElement extends AbstractParsingElement {
 	private XWPFTable docxTable;
 	private XWPFTableRow docxTableRow;
 	private TableParsingElement tableParsingElement;
+	// Widths of the cells as set by the XHTML, 0 if not set
+	private int[] cellWidths = new int[8];
+	private int cellCount;
 
 	/**
 	 * Constructor
@@ -44,10 +49,53 @@ public class TableRowParsingElement extends AbstractParsingElement {
 		this.tableParsingElement = tableParsingElement;
 		this.docxTable = tableParsingElement.getDocxTable();
 		//System.out.println("Creating new row at position: "
-		//		+ tableParsingElement.getDocxTable().getNumberOfRows());
-		this.docxTableRow = this.docxTable
-				.insertNewTableRow(tableParsingElement.getDocxTable()
-						.getNumberOfRows());
+		//		+ tableParsingElement.getRowCount());
+		this.docxTableRow = tableParsingElement.insertNewRow();
+	}
+
+	/**
+	 * This method records a new cell of the row.
+	 * 
+	 * @param width
+	 *            cell width in table width units, 0 if not set
+	 * @return index of the cell in the row
+	 */
+	public int addCell(int width) {
+		if (this.cellCount == this.cellWidths.length) {
+			this.cellWidths = Arrays.copyOf(this.cellWidths,
+					this.cellCount * 2);
+		}
+		this.cellWidths[this.cellCount] = width;
+		return this.cellCount++;
+	}
+
+	/**
+	 * This method sets the width of a cell of the row.
+	 * 
+	 * @param index
+	 *            index of the cell in the row
+	 * @param width
+	 *            cell width in table width units
+	 */
+	public void setCellWidth(int index, int width) {
+		this.cellWidths[index] = width;
+	}
+
+	/**
+	 * @param index
+	 *            index of the cell in the row
+	 * @return the cell width in table width units, 0 if not set
+	 */
+	public int getCellWidth(int index) {
+		return this.cellWidths[index];
+	}
+
+	/**
+	 * @return the number of cells in the row, including row span
+	 *         continuation cells
+	 */
+	public int getCellCount() {
+		return this.cellCount;
 	}
 
 	/**
@@ -14,7 +14,18 @@
 package org.apache.poi.xwpf.converter.xwpf.bo;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
 
+import org.apache.poi.xwpf.converter.xwpf.image.ClasspathImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.DataUriImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.FileImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageCache;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.metrics.ConversionMetricsListener;
+import org.apache.poi.xwpf.converter.xwpf.metrics.NoOpConversionMetricsListener;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.STPageOrientation;
 
 /**
@@ -31,12 +42,43 @@ public class XWPFOptions {
 	private BigInteger pageWidth;
 	// Images cannot be processed on the web
 	private boolean webBasedProcessing;
+	// Resolve classpath images for web based processing
+	private boolean webClasspathImages;
+	private ConversionMetricsListener metricsListener;
+	// Write the document part while parsing instead of building it in memory
+	private boolean streamingOutput;
+	// Completed table rows held in memory before they are streamed
+	private int streamingTableRows;
+	// Deflate levels of the package parts, Deflater.NO_COMPRESSION stores them
+	private int xmlCompressionLevel;
+	private int mediaCompressionLevel;
+	// Compress the package parts on the common fork-join pool
+	private boolean parallelCompression;
+	// Image contents shared by conversions
+	private ImageCache imageCache;
+	// Load images in the background while parsing continues
+	private Executor imageLoadingExecutor;
+	// Copy large image files into the package without loading them
+	private long mappedImageThreshold;
+	// Resolvers asked before the built-in ones
+	private final List<ImageResolver> imageResolvers;
 
 	private XWPFOptions() {
 		this.orientation = STPageOrientation.PORTRAIT;
 		this.pageHeight = BigInteger.valueOf(16383);
 		this.pageWidth = BigInteger.valueOf(11906);
 		this.webBasedProcessing = false;
+		this.webClasspathImages = false;
+		this.metricsListener = NoOpConversionMetricsListener.getInstance();
+		this.streamingOutput = false;
+		this.streamingTableRows = 1000;
+		this.xmlCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+		this.mediaCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+		this.parallelCompression = false;
+		this.imageCache = null;
+		this.imageLoadingExecutor = null;
+		this.mappedImageThreshold = 0;
+		this.imageResolvers = new ArrayList<ImageResolver>();
 
 	}
 
@@ -50,7 +92,8 @@ public class XWPFOptions {
 	}
 
 	/**
-	 * Returns default instance of the options.
+	 * Returns default instance of the options. It cannot be changed, its
+	 * setters throw UnsupportedOperationException.
 	 * 
 	 * @return default instance of the options
 	 */
@@ -70,6 +113,7 @@ public class XWPFOptions {
 	 *            the orientation to set
 	 */
 	public void setOrientation(STPageOrientation.Enum orientation) {
+		checkModifiable();
 		this.orientation = orientation;
 	}
 
@@ -85,6 +129,7 @@ public class XWPFOptions {
 	 *            the pageHeight to set
 	 */
 	public void setPageHeight(BigInteger pageHeight) {
+		checkModifiable();
 		this.pageHeight = pageHeight;
 	}
 
@@ -100,6 +145,7 @@ public class XWPFOptions {
 	 *            the pageWidth to set
 	 */
 	public void setPageWidth(BigInteger pageWidth) {
+		checkModifiable();
 		this.pageWidth = pageWidth;
 	}
 
@@ -115,7 +161,260 @@ public class XWPFOptions {
 	 *            the webBasedProcessing to set
 	 */
 	public void setWebBasedProcessing(boolean webBasedProcessing) {
+		checkModifiable();
 		this.webBasedProcessing = webBasedProcessing;
 	}
 
+	/**
+	 * @return the webClasspathImages
+	 */
+	public boolean isWebClasspathImages() {
+		return webClasspathImages;
+	}
+
+	/**
+	 * @param webClasspathImages
+	 *            if true, classpath resources are resolved as images for web
+	 *            based processing too; they are not by default, so a web
+	 *            page cannot read resources of the application
+	 */
+	public void setWebClasspathImages(boolean webClasspathImages) {
+		checkModifiable();
+		this.webClasspathImages = webClasspathImages;
+	}
+
+	/**
+	 * @return the metricsListener
+	 */
+	public ConversionMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * @param metricsListener
+	 *            the metricsListener to set; null disables metrics
+	 */
+	public void setMetricsListener(ConversionMetricsListener metricsListener) {
+		checkModifiable();
+		this.metricsListener = metricsListener != null ? metricsListener
+				: NoOpConversionMetricsListener.getInstance();
+	}
+
+	/**
+	 * @return the streamingOutput
+	 */
+	public boolean isStreamingOutput() {
+		return streamingOutput;
+	}
+
+	/**
+	 * @param streamingOutput
+	 *            if true, completed paragraphs and tables are written to the
+	 *            output while the XHTML document is parsed, so memory use does
+	 *            not grow with the document length
+	 */
+	public void setStreamingOutput(boolean streamingOutput) {
+		checkModifiable();
+		this.streamingOutput = streamingOutput;
+	}
+
+	/**
+	 * @return the streamingTableRows
+	 */
+	public int getStreamingTableRows() {
+		return streamingTableRows;
+	}
+
+	/**
+	 * @param streamingTableRows
+	 *            with streaming output, the completed rows of a table are
+	 *            written to a temporary file whenever that many are held in
+	 *            memory, so memory use does not grow with the table length
+	 *            either. The table is written to the output when it is
+	 *            complete, so its column grid covers all rows. 0 holds whole
+	 *            tables in memory.
+	 */
+	public void setStreamingTableRows(int streamingTableRows) {
+		checkModifiable();
+		if (streamingTableRows < 0) {
+			throw new IllegalArgumentException("Invalid number of rows: "
+					+ streamingTableRows);
+		}
+		this.streamingTableRows = streamingTableRows;
+	}
+
+	/**
+	 * @return the xmlCompressionLevel
+	 */
+	public int getXmlCompressionLevel() {
+		return xmlCompressionLevel;
+	}
+
+	/**
+	 * @param xmlCompressionLevel
+	 *            deflate level (see java.util.zip.Deflater) of the XML parts;
+	 *            Deflater.BEST_SPEED trades size for CPU time. With streaming
+	 *            output, a stored (Deflater.NO_COMPRESSION) document part is
+	 *            written to a temporary file before it is copied into the
+	 *            output
+	 */
+	public void setXmlCompressionLevel(int xmlCompressionLevel) {
+		checkModifiable();
+		checkCompressionLevel(xmlCompressionLevel);
+		this.xmlCompressionLevel = xmlCompressionLevel;
+	}
+
+	/**
+	 * @return the mediaCompressionLevel
+	 */
+	public int getMediaCompressionLevel() {
+		return mediaCompressionLevel;
+	}
+
+	/**
+	 * @param mediaCompressionLevel
+	 *            deflate level (see java.util.zip.Deflater) of the media
+	 *            parts; images are usually compressed already, so
+	 *            Deflater.NO_COMPRESSION stores them without deflating
+	 */
+	public void setMediaCompressionLevel(int mediaCompressionLevel) {
+		checkModifiable();
+		checkCompressionLevel(mediaCompressionLevel);
+		this.mediaCompressionLevel = mediaCompressionLevel;
+	}
+
+	/**
+	 * @return the parallelCompression
+	 */
+	public boolean isParallelCompression() {
+		return parallelCompression;
+	}
+
+	/**
+	 * @param parallelCompression
+	 *            if true, the package parts are compressed in parallel on the
+	 *            common fork-join pool; useful for large documents converted
+	 *            one at a time, but it competes with concurrent conversions
+	 *            for the cores. Ignored for streaming output.
+	 */
+	public void setParallelCompression(boolean parallelCompression) {
+		checkModifiable();
+		this.parallelCompression = parallelCompression;
+	}
+
+	/**
+	 * @return the imageCache
+	 */
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * @param imageCache
+	 *            cache of image contents shared by the conversions using it;
+	 *            null reads images from the files for every conversion
+	 */
+	public void setImageCache(ImageCache imageCache) {
+		checkModifiable();
+		this.imageCache = imageCache;
+	}
+
+	/**
+	 * @return the imageLoadingExecutor
+	 */
+	public Executor getImageLoadingExecutor() {
+		return imageLoadingExecutor;
+	}
+
+	/**
+	 * @param imageLoadingExecutor
+	 *            executor loading image files while the XHTML document is
+	 *            parsed, e.g. a cached thread pool when images are on slow
+	 *            storage; the pictures are added to the document when it is
+	 *            completed, or when the paragraph or table holding them is
+	 *            written for streaming output. Null loads every image on the
+	 *            parsing thread when it is found.
+	 */
+	public void setImageLoadingExecutor(Executor imageLoadingExecutor) {
+		checkModifiable();
+		this.imageLoadingExecutor = imageLoadingExecutor;
+	}
+
+	/**
+	 * @return the mappedImageThreshold
+	 */
+	public long getMappedImageThreshold() {
+		return mappedImageThreshold;
+	}
+
+	/**
+	 * @param mappedImageThreshold
+	 *            minimum size in bytes of image files that are not loaded
+	 *            into memory; they are memory-mapped and copied into the
+	 *            package when it is written. Such files are not cached and
+	 *            must not change until the document is written. 0 loads all
+	 *            images, as does a conversion without output stream.
+	 */
+	public void setMappedImageThreshold(long mappedImageThreshold) {
+		checkModifiable();
+		if (mappedImageThreshold < 0) {
+			throw new IllegalArgumentException("Invalid threshold: "
+					+ mappedImageThreshold);
+		}
+		this.mappedImageThreshold = mappedImageThreshold;
+	}
+
+	/**
+	 * This method adds an image resolver. Resolvers are asked in the order
+	 * they were added, before the built-in resolvers of data URIs, classpath
+	 * resources and files.
+	 * 
+	 * @param imageResolver
+	 *            image resolver
+	 */
+	public void addImageResolver(ImageResolver imageResolver) {
+		checkModifiable();
+		this.imageResolvers.add(imageResolver);
+	}
+
+	/**
+	 * This method returns the image resolvers in the order they are asked:
+	 * the added ones, then the built-in ones. Files are not resolved for web
+	 * based processing, and classpath resources only if enabled with
+	 * {@link #setWebClasspathImages(boolean)}.
+	 * 
+	 * @return image resolvers
+	 */
+	public List<ImageResolver> getImageResolvers() {
+		List<ImageResolver> resolvers = new ArrayList<ImageResolver>(
+				this.imageResolvers);
+		resolvers.add(DataUriImageResolver.getInstance());
+		if (!this.webBasedProcessing || this.webClasspathImages) {
+			resolvers.add(ClasspathImageResolver.getInstance());
+		}
+		if (!this.webBasedProcessing) {
+			resolvers.add(FileImageResolver.getInstance());
+		}
+		return resolvers;
+	}
+
+	/**
+	 * This method prevents changes of the default options, which are shared
+	 * by every conversion without options.
+	 */
+	private void checkModifiable() {
+		if (this == DEFAULT) {
+			throw new UnsupportedOperationException(
+					"Default options cannot be changed");
+		}
+	}
+
+	private static void checkCompressionLevel(int level) {
+		if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+				&& level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: "
+					+ level);
+		}
+	}
+
 }
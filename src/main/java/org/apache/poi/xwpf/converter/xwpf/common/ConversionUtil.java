@@ -13,6 +13,10 @@
  */
 package org.apache.poi.xwpf.converter.xwpf.common;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * @author Anton
  * 
@@ -24,6 +28,7 @@ public class ConversionUtil {
 	private static final int[] UNIT_OFFSET_MAP = new int[] { 0, 36, 73, 109,
 			146, 182, 219 };
 	private static final double PIXEL_MULTIPLIER_WITH_OFFSET = 15.27;
+	private static final int BUFFER_SIZE = 8192;
 
 	/**
 	 * This method converts pixels to width units.
@@ -61,11 +66,38 @@ public class ConversionUtil {
 	 * @return 6-character color string
 	 */
 	public static String doubleColorLength(String color) {
-		StringBuffer result = new StringBuffer();
+		StringBuilder result = new StringBuilder();
 		for (char c : color.toCharArray()) {
 			result.append(c);
 			result.append(c);
 		}
 		return result.toString();
 	}
+
+	/**
+	 * This method reads the stream to the end and closes it.
+	 * 
+	 * @param in
+	 *            input stream
+	 * @param expectedLength
+	 *            expected length, used to size the buffer; 0 if unknown
+	 * @return stream content
+	 * @throws IOException
+	 */
+	public static byte[] readFully(InputStream in, long expectedLength)
+			throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					(int) Math.min(Math.max(expectedLength, 0),
+							Integer.MAX_VALUE - 8));
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
 }
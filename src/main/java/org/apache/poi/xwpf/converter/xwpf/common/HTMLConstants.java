@@ -53,7 +53,6 @@ public class HTMLConstants {
 	public static final String STRONG_TAG = "strong";
 	public static final String IMG_TAG = "img";
 
-	public static final String HTML_ATTRIBUTE_BORDER = "border";
 	public static final String HTML_ATTRIBUTE_STYLE = "style";
 	public static final String HTML_ATTRIBUTE_CLASS="class";
 	public static final String HTML_ATTRIBUTE_COLSPAN = "colspan";
@@ -62,15 +61,14 @@ public class HTMLConstants {
 	public static final String HTML_ATTRIBUTE_HREF = "href";
 	public static final String HTML_ATTRIBUTE_SRC = "src";
 	public static final String HTML_ATTRIBUTE_FILE = "file:///";
+	public static final String HTML_ATTRIBUTE_DATA = "data:";
 
 	public static final String HTML_ATTRIBUTE_VALUE_WIDTH = "width:";
 	public static final String HTML_ATTRIBUTE_VALUE_HEIGHT = "height:";
 	public static final String HTML_ATTRIBUTE_VALUE_PX = "px";
 	public static final String HTML_ATTRIBUTE_VALUE_PERCENTAGE = "%";
-	public static final String HTML_ATTRIBUTE_VALUE_BORDER_PRESENT = "1";
 
 	public static final String COLOR_BLACK = "FF0000";
-	public static final String COLOR_WHITE = "FFFFFF";
 	public static final String COLOR_HYPERLINK_BLUE = "0000FF";
 	public static final String COLOR_GREY = "CCCCCC";
 	public static final String   FONT_STYLE = "font-style:";
@@ -0,0 +1,100 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.common;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This enum holds supported XHTML tags. Tag names are resolved through a
+ * lookup table built once, so resolving a tag does not allocate.
+ *
+ * @author Anton
+ *
+ */
+public enum HTMLTag {
+	HTML(HTMLConstants.HTML_TAG), TABLE(HTMLConstants.TABLE_TAG), TBODY(
+			HTMLConstants.TBODY_TAG), THEAD(HTMLConstants.THEAD_TAG), TFOOT(
+			HTMLConstants.TFOOT_TAG), TR(HTMLConstants.TR_TAG), TD(
+			HTMLConstants.TD_TAG), TH(HTMLConstants.TH_TAG), P(
+			HTMLConstants.P_TAG), STRONG(HTMLConstants.STRONG_TAG), A(
+			HTMLConstants.A_TAG), UL(HTMLConstants.UL_TAG), OL(
+			HTMLConstants.OL_TAG), LI(HTMLConstants.LI_TAG), IMG(
+			HTMLConstants.IMG_TAG), BR(HTMLConstants.BR_TAG), EM(
+			HTMLConstants.EM_TAG), S(HTMLConstants.S_TAG), U(
+			HTMLConstants.U_TAG), HR(HTMLConstants.HR_TAG), H1(
+			HTMLConstants.H1_TAG), H2(HTMLConstants.H2_TAG), H3(
+			HTMLConstants.H3_TAG), H4(HTMLConstants.H4_TAG), H5(
+			HTMLConstants.H5_TAG), H6(HTMLConstants.H6_TAG), SPAN(
+			HTMLConstants.SPAN_TAG), CAPTION(HTMLConstants.CAPTION_TAG);
+
+	private static final Map<String, HTMLTag> TAGS_BY_NAME = new HashMap<String, HTMLTag>();
+
+	static {
+		for (HTMLTag tag : values()) {
+			TAGS_BY_NAME.put(tag.tagName, tag);
+		}
+	}
+
+	private final String tagName;
+
+	private HTMLTag(String tagName) {
+		this.tagName = tagName;
+	}
+
+	/**
+	 * @return the lower case tag name
+	 */
+	public String getTagName() {
+		return tagName;
+	}
+
+	/**
+	 * This method resolves a tag by its name. Lower case names (the XHTML
+	 * norm) are resolved directly; the name is lower cased only if it contains
+	 * upper case characters.
+	 *
+	 * @param name
+	 *            tag local name
+	 * @return tag or null if the tag is not supported
+	 */
+	public static HTMLTag forName(String name) {
+		if (name == null) {
+			return null;
+		}
+
+		HTMLTag tag = TAGS_BY_NAME.get(name);
+		if (tag == null && hasUpperCase(name)) {
+			tag = TAGS_BY_NAME.get(name.toLowerCase(Locale.ENGLISH));
+		}
+		return tag;
+	}
+
+	/**
+	 * This method checks if the name contains upper case characters.
+	 *
+	 * @param name
+	 *            tag name
+	 * @return true if at least one character is upper case
+	 */
+	private static boolean hasUpperCase(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.isUpperCase(name.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
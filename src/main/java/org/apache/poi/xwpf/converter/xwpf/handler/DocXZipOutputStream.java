@@ -0,0 +1,499 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
+import org.apache.poi.xwpf.converter.xwpf.zip.DeflatedPart;
+import org.apache.poi.xwpf.converter.xwpf.zip.FileParts;
+import org.apache.poi.xwpf.converter.xwpf.zip.PartDeflater;
+import org.apache.poi.xwpf.converter.xwpf.zip.PrecompressedParts;
+import org.apache.poi.xwpf.converter.xwpf.zip.ZipPackageWriter;
+
+/**
+ * This class writes DocX packages. POI writes packages into a given
+ * ZipOutputStream directly, so this stream can be passed to
+ * XWPFDocument.write.
+ *
+ * <ul>
+ * <li>XML parts (including relationships) and media parts (images, etc.) have
+ * separate compression levels. Level Deflater.NO_COMPRESSION stores the part
+ * without deflating it.</li>
+ * <li>Parts identical to the precompressed parts of the template are copied
+ * into the zip as they are, without being compressed again.</li>
+ * <li>Parts copied from files (see FileParts) get the content of the file
+ * instead of the placeholder written by POI. The file is memory-mapped and
+ * written or deflated in segments, so it is never held on the heap.</li>
+ * <li>With a fork-join pool, the parts are compressed in parallel; every part
+ * is handed to the pool as soon as it has been written, so compression
+ * overlaps with the serialization of the following parts. The zip keeps the
+ * original part order.</li>
+ * </ul>
+ *
+ * Other parts are deflated while they are written, like ZipOutputStream does.
+ * Stored parts are buffered, because their CRC and size precede the content;
+ * large stored content should be written from a file with
+ * {@link #putFileEntry(String, File)}.
+ *
+ * @author Anton
+ *
+ */
+public class DocXZipOutputStream extends ZipOutputStream {
+
+	private static final String XML_EXTENSION = ".xml";
+	private static final String RELATIONSHIPS_EXTENSION = ".rels";
+	private static final int BUFFER_SIZE = 8192;
+	private static final int FILE_BUFFER_SIZE = 64 * 1024;
+	private static final long MAPPED_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private final ZipPackageWriter writer;
+	private final int xmlLevel;
+	private final int mediaLevel;
+	private final ForkJoinPool pool;
+	private final PrecompressedParts precompressedParts;
+	private final FileParts fileParts;
+
+	// Entry whose content is discarded, e.g. a part written already
+	private String discardedEntryName;
+
+	// Buffered parts not written yet, in part order
+	private final LinkedList<Future<DeflatedPart>> pendingParts = new LinkedList<Future<DeflatedPart>>();
+
+	// Entry being written; the content is null for deflated entries, the
+	// file is set for parts copied from files
+	private String entryName;
+	private int entryLevel;
+	private ByteArrayOutputStream entryContent;
+	private File entryFile;
+	private boolean entryDiscarded;
+
+	private Deflater entryDeflater;
+	private final CRC32 entryCrc = new CRC32();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	// Buffer of files that are read instead of memory-mapped
+	private ByteBuffer fileBuffer;
+	private boolean finished;
+
+	/**
+	 * Creates a new stream with the levels set in the options.
+	 *
+	 * @param out
+	 *            output stream
+	 * @param options
+	 *            conversion options
+	 */
+	public DocXZipOutputStream(OutputStream out, XWPFOptions options) {
+		this(out, options.getXmlCompressionLevel(), options
+				.getMediaCompressionLevel());
+	}
+
+	/**
+	 * Creates a new stream.
+	 *
+	 * @param out
+	 *            output stream
+	 * @param xmlLevel
+	 *            compression level of XML parts
+	 * @param mediaLevel
+	 *            compression level of other parts
+	 */
+	public DocXZipOutputStream(OutputStream out, int xmlLevel, int mediaLevel) {
+		this(out, xmlLevel, mediaLevel, null, null, null);
+	}
+
+	/**
+	 * Creates a new stream.
+	 *
+	 * @param out
+	 *            output stream
+	 * @param xmlLevel
+	 *            compression level of XML parts
+	 * @param mediaLevel
+	 *            compression level of other parts
+	 * @param pool
+	 *            pool compressing the parts, null to compress them on the
+	 *            calling thread
+	 * @param precompressedParts
+	 *            precompressed parts of the template, may be null
+	 * @param fileParts
+	 *            parts copied from files, may be null
+	 */
+	public DocXZipOutputStream(OutputStream out, int xmlLevel, int mediaLevel,
+			ForkJoinPool pool, PrecompressedParts precompressedParts,
+			FileParts fileParts) {
+		super(out);
+		this.writer = new ZipPackageWriter(out);
+		this.xmlLevel = xmlLevel;
+		this.mediaLevel = mediaLevel;
+		this.pool = pool;
+		this.precompressedParts = precompressedParts;
+		this.fileParts = fileParts;
+	}
+
+	/**
+	 * This method creates the stream the package is written into, as set in
+	 * the options.
+	 *
+	 * @param out
+	 *            output stream
+	 * @param options
+	 *            conversion options
+	 * @param precompressedParts
+	 *            precompressed parts of the template, may be null
+	 * @param fileParts
+	 *            parts copied from files, may be null
+	 * @return zip stream
+	 */
+	public static ZipOutputStream create(OutputStream out,
+			XWPFOptions options, PrecompressedParts precompressedParts,
+			FileParts fileParts) {
+		return new DocXZipOutputStream(out, options.getXmlCompressionLevel(),
+				options.getMediaCompressionLevel(),
+				options.isParallelCompression() ? ForkJoinPool.commonPool()
+						: null, precompressedParts, fileParts);
+	}
+
+	/**
+	 * This method checks if the zip entry holds an XML part.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @return true for XML and relationships parts
+	 */
+	public static boolean isXmlPart(String name) {
+		return name.endsWith(XML_EXTENSION)
+				|| name.endsWith(RELATIONSHIPS_EXTENSION);
+	}
+
+	/**
+	 * This method makes the stream discard the content of the entry with the
+	 * given name, e.g. a part that is written already.
+	 *
+	 * @param name
+	 *            zip entry name
+	 */
+	public void discardEntry(String name) {
+		this.discardedEntryName = name;
+	}
+
+	/**
+	 * This method writes a complete entry with the content of the file, like
+	 * the parts copied from files. The file is read in segments, so the
+	 * content is not buffered even if the entry is stored. Unlike the parts
+	 * copied from files, the file is not memory-mapped, so it can be deleted
+	 * as soon as the method returns.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @param file
+	 *            file holding the content
+	 * @throws IOException
+	 */
+	public void putFileEntry(String name, File file) throws IOException {
+		if (this.finished) {
+			throw new ZipException("Stream is finished");
+		}
+		this.closeEntry();
+
+		this.entryName = name;
+		this.entryLevel = isXmlPart(name) ? this.xmlLevel : this.mediaLevel;
+		this.writeFile(file, false);
+		this.entryName = null;
+	}
+
+	@Override
+	public void putNextEntry(ZipEntry entry) throws IOException {
+		if (this.finished) {
+			throw new ZipException("Stream is finished");
+		}
+		this.closeEntry();
+
+		this.entryName = entry.getName();
+		if (this.entryName.equals(this.discardedEntryName)) {
+			this.entryDiscarded = true;
+			return;
+		}
+		this.entryLevel = isXmlPart(this.entryName) ? this.xmlLevel
+				: this.mediaLevel;
+		this.entryFile = this.fileParts != null ? this.fileParts
+				.get(this.entryName) : null;
+		if (this.entryFile != null) {
+			// the placeholder written by POI is discarded
+			return;
+		}
+		if (this.pool != null
+				|| this.entryLevel == Deflater.NO_COMPRESSION
+				|| (this.precompressedParts != null && this.precompressedParts
+						.contains(this.entryName))) {
+			this.entryContent = new ByteArrayOutputStream();
+		} else {
+			this.startDeflatedEntry();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (this.entryName == null) {
+			throw new ZipException("No current zip entry");
+		}
+		if (this.entryDiscarded || this.entryFile != null) {
+			return;
+		}
+		if (this.entryContent != null) {
+			this.entryContent.write(b, off, len);
+			return;
+		}
+
+		this.deflate(b, off, len);
+	}
+
+	@Override
+	public void closeEntry() throws IOException {
+		if (this.entryName == null) {
+			return;
+		}
+
+		if (this.entryDiscarded) {
+			this.entryDiscarded = false;
+		} else if (this.entryFile != null) {
+			this.writeFile(this.entryFile, true);
+			this.entryFile = null;
+		} else if (this.entryContent != null) {
+			this.pendingParts.add(this.compress(this.entryName,
+					this.entryContent.toByteArray(), this.entryLevel));
+			this.entryContent = null;
+			this.writePendingParts(false);
+		} else {
+			this.finishDeflatedEntry();
+		}
+		this.entryName = null;
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (this.finished) {
+			return;
+		}
+		this.closeEntry();
+		this.writePendingParts(true);
+		this.writer.finish();
+		this.finished = true;
+		if (this.entryDeflater != null) {
+			this.entryDeflater.end();
+		}
+	}
+
+	/**
+	 * This method compresses a buffered part, or finds it among the
+	 * precompressed parts.
+	 *
+	 * @return compressed part, possibly not completed yet
+	 */
+	private Future<DeflatedPart> compress(String name, byte[] content,
+			int level) {
+		DeflatedPart part = null;
+		if (this.precompressedParts != null) {
+			part = this.precompressedParts.find(name, content, level);
+		}
+		if (part == null && this.pool != null) {
+			return this.pool.submit(PartDeflater.newTask(name, content, level));
+		}
+		if (part == null) {
+			part = PartDeflater.deflate(name, content, level);
+		}
+		return CompletableFuture.completedFuture(part);
+	}
+
+	/**
+	 * This method writes the buffered parts in order.
+	 *
+	 * @param wait
+	 *            if false, only parts that are already compressed are written
+	 * @throws IOException
+	 */
+	private void writePendingParts(boolean wait) throws IOException {
+		while (!this.pendingParts.isEmpty()
+				&& (wait || this.pendingParts.getFirst().isDone())) {
+			try {
+				this.writer.write(this.pendingParts.removeFirst().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while compressing parts");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * This method starts the current entry, deflated while it is written.
+	 *
+	 * @throws IOException
+	 */
+	private void startDeflatedEntry() throws IOException {
+		this.writePendingParts(true);
+		if (this.entryDeflater == null) {
+			this.entryDeflater = new Deflater(this.entryLevel, true);
+		} else {
+			this.entryDeflater.reset();
+			this.entryDeflater.setLevel(this.entryLevel);
+		}
+		this.entryCrc.reset();
+		this.writer.startEntry(this.entryName);
+	}
+
+	/**
+	 * This method deflates content of the current entry.
+	 *
+	 * @throws IOException
+	 */
+	private void deflate(byte[] b, int off, int len) throws IOException {
+		this.entryCrc.update(b, off, len);
+		this.entryDeflater.setInput(b, off, len);
+		while (!this.entryDeflater.needsInput()) {
+			this.writeDeflated();
+		}
+	}
+
+	/**
+	 * This method completes the current deflated entry.
+	 *
+	 * @throws IOException
+	 */
+	private void finishDeflatedEntry() throws IOException {
+		this.entryDeflater.finish();
+		while (!this.entryDeflater.finished()) {
+			this.writeDeflated();
+		}
+		this.writer.endEntry(this.entryCrc.getValue(),
+				this.entryDeflater.getBytesWritten(),
+				this.entryDeflater.getBytesRead());
+	}
+
+	/**
+	 * This method writes the current entry from the file, in segments that
+	 * are memory-mapped or read into a buffer. Stored entries are written
+	 * from the segments directly, deflated entries are passed to the
+	 * deflater through a small buffer.
+	 *
+	 * @param file
+	 *            file holding the content
+	 * @param mapped
+	 *            if true, the file is memory-mapped
+	 * @throws IOException
+	 */
+	private void writeFile(File file, boolean mapped) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			long size = channel.size();
+			if (this.entryLevel == Deflater.NO_COMPRESSION) {
+				this.writePendingParts(true);
+				CRC32 crc = new CRC32();
+				for (long position = 0; position < size;) {
+					ByteBuffer segment = this.segment(channel, position, size,
+							mapped);
+					position += segment.remaining();
+					crc.update(segment);
+				}
+				this.writer.startStoredEntry(this.entryName, crc.getValue(),
+						size);
+				for (long position = 0; position < size;) {
+					ByteBuffer segment = this.segment(channel, position, size,
+							mapped);
+					position += segment.remaining();
+					this.writer.writeEntryData(segment);
+				}
+				this.writer.endStoredEntry();
+			} else {
+				this.startDeflatedEntry();
+				byte[] chunk = new byte[FILE_BUFFER_SIZE];
+				for (long position = 0; position < size;) {
+					ByteBuffer segment = this.segment(channel, position, size,
+							mapped);
+					position += segment.remaining();
+					while (segment.hasRemaining()) {
+						int length = Math.min(chunk.length, segment.remaining());
+						segment.get(chunk, 0, length);
+						this.deflate(chunk, 0, length);
+					}
+				}
+				this.finishDeflatedEntry();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * This method returns the segment of the file starting at the position,
+	 * memory-mapped or read into the file buffer.
+	 */
+	private ByteBuffer segment(FileChannel channel, long position, long size,
+			boolean mapped) throws IOException {
+		if (mapped) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(MAPPED_SEGMENT_SIZE, size - position));
+		}
+		if (this.fileBuffer == null) {
+			this.fileBuffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+		}
+		this.fileBuffer.clear();
+		this.fileBuffer.limit((int) Math.min(FILE_BUFFER_SIZE, size
+				- position));
+		while (this.fileBuffer.hasRemaining()) {
+			if (channel.read(this.fileBuffer,
+					position + this.fileBuffer.position()) < 0) {
+				throw new EOFException("Unexpected end of " + this.entryName);
+			}
+		}
+		this.fileBuffer.flip();
+		return this.fileBuffer;
+	}
+
+	/**
+	 * This method writes the output of the deflater of the current entry.
+	 *
+	 * @throws IOException
+	 */
+	private void writeDeflated() throws IOException {
+		int deflated = this.entryDeflater.deflate(this.buffer);
+		if (deflated > 0) {
+			this.writer.writeEntryData(this.buffer, 0, deflated);
+		}
+	}
+
+}
@@ -0,0 +1,259 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.handler;
+
+import org.apache.poi.xwpf.converter.xwpf.bo.AbstractParsingElement;
+import org.apache.poi.xwpf.converter.xwpf.bo.ParagraphParsingElement;
+import org.apache.poi.xwpf.converter.xwpf.bo.TableParsingElement;
+import org.apache.poi.xwpf.converter.xwpf.bo.TableRowParsingElement;
+import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
+
+/**
+ * This class holds the currently open XHTML elements. There is one frame per
+ * open tag; tags that do not produce a parsing element get an empty frame, so
+ * every end tag pops exactly one frame.
+ *
+ * Each frame remembers the innermost open element for every capability
+ * (may contain text, paragraph, strong, etc.), so lookups do not depend on the
+ * size of the document.
+ *
+ * @author Anton
+ *
+ */
+public class ParsingElementStack {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Frame[] frames = new Frame[INITIAL_CAPACITY];
+	private int size;
+	private int elements;
+
+	/**
+	 * This method pushes a new frame.
+	 *
+	 * @param element
+	 *            parsing element for the frame, may be null
+	 */
+	public void push(AbstractParsingElement element) {
+		if (this.size == this.frames.length) {
+			Frame[] grown = new Frame[this.frames.length * 2];
+			System.arraycopy(this.frames, 0, grown, 0, this.size);
+			this.frames = grown;
+		}
+
+		Frame frame = this.frames[this.size];
+		if (frame == null) {
+			frame = new Frame();
+			this.frames[this.size] = frame;
+		}
+		frame.populate(element, this.size > 0 ? this.frames[this.size - 1]
+				: null);
+		this.size++;
+		if (element != null) {
+			this.elements++;
+		}
+	}
+
+	/**
+	 * This method pops the innermost frame.
+	 *
+	 * @return parsing element of the popped frame, may be null
+	 */
+	public AbstractParsingElement pop() {
+		Frame frame = this.frames[--this.size];
+		AbstractParsingElement element = frame.element;
+		frame.populate(null, null);
+		if (element != null) {
+			this.elements--;
+		}
+		return element;
+	}
+
+	/**
+	 * This method re-evaluates all frames. It has to be called when a
+	 * capability of an open element is changed.
+	 */
+	public void refresh() {
+		for (int i = 0; i < this.size; i++) {
+			this.frames[i].populate(this.frames[i].element,
+					i > 0 ? this.frames[i - 1] : null);
+		}
+	}
+
+	/**
+	 * This method removes all frames.
+	 */
+	public void clear() {
+		while (this.size > 0) {
+			this.pop();
+		}
+	}
+
+	/**
+	 * @return the number of open frames
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return true if at least one open frame holds a parsing element
+	 */
+	public boolean hasOpenElements() {
+		return this.elements > 0;
+	}
+
+	/**
+	 * @return the innermost open element that may contain text
+	 */
+	public AbstractParsingElement getInnermostMayContainText() {
+		return this.size > 0 ? this.frames[this.size - 1].mayContainText
+				: null;
+	}
+
+	/**
+	 * @return the innermost open element that may contain paragraph
+	 */
+	public AbstractParsingElement getInnermostMayContainParagraph() {
+		return this.size > 0 ? this.frames[this.size - 1].mayContainParagraph
+				: null;
+	}
+
+	/**
+	 * @return the innermost open element that may contain strong text
+	 */
+	public AbstractParsingElement getInnermostMayContainStrong() {
+		return this.size > 0 ? this.frames[this.size - 1].mayContainStrong
+				: null;
+	}
+
+	/**
+	 * @return the innermost open element that may contain italic
+	 */
+	public AbstractParsingElement getInnermostMayContainItalic() {
+		return this.size > 0 ? this.frames[this.size - 1].mayContainItalic
+				: null;
+	}
+
+	/**
+	 * @return the innermost open element that may contain underline
+	 */
+	public AbstractParsingElement getInnermostMayContainUnderline() {
+		return this.size > 0 ? this.frames[this.size - 1].mayContainUnderline
+				: null;
+	}
+
+	/**
+	 * @return the innermost open element that may contain strike through
+	 */
+	public AbstractParsingElement getInnermostMayContainStrikeThrough() {
+		return this.size > 0 ? this.frames[this.size - 1].mayContainStrikeThrough
+				: null;
+	}
+
+	/**
+	 * @return the innermost open paragraph
+	 */
+	public ParagraphParsingElement getInnermostParagraph() {
+		return this.size > 0 ? this.frames[this.size - 1].paragraph : null;
+	}
+
+	/**
+	 * @return the innermost open table
+	 */
+	public TableParsingElement getInnermostTable() {
+		return this.size > 0 ? this.frames[this.size - 1].table : null;
+	}
+
+	/**
+	 * @return the innermost open table row
+	 */
+	public TableRowParsingElement getInnermostTableRow() {
+		return this.size > 0 ? this.frames[this.size - 1].tableRow : null;
+	}
+
+	/**
+	 * A single open tag. Frames are re-used to avoid allocation per element.
+	 */
+	private static final class Frame {
+		private AbstractParsingElement element;
+		private AbstractParsingElement mayContainText;
+		private AbstractParsingElement mayContainParagraph;
+		private AbstractParsingElement mayContainStrong;
+		private AbstractParsingElement mayContainItalic;
+		private AbstractParsingElement mayContainUnderline;
+		private AbstractParsingElement mayContainStrikeThrough;
+		private ParagraphParsingElement paragraph;
+		private TableParsingElement table;
+		private TableRowParsingElement tableRow;
+
+		/**
+		 * This method populates the frame from its element and the enclosing
+		 * frame.
+		 *
+		 * @param element
+		 *            parsing element, may be null
+		 * @param parent
+		 *            enclosing frame, may be null
+		 */
+		private void populate(AbstractParsingElement element, Frame parent) {
+			this.element = element;
+			this.mayContainText = parent != null ? parent.mayContainText : null;
+			this.mayContainParagraph = parent != null ? parent.mayContainParagraph
+					: null;
+			this.mayContainStrong = parent != null ? parent.mayContainStrong
+					: null;
+			this.mayContainItalic = parent != null ? parent.mayContainItalic
+					: null;
+			this.mayContainUnderline = parent != null ? parent.mayContainUnderline
+					: null;
+			this.mayContainStrikeThrough = parent != null ? parent.mayContainStrikeThrough
+					: null;
+			this.paragraph = parent != null ? parent.paragraph : null;
+			this.table = parent != null ? parent.table : null;
+			this.tableRow = parent != null ? parent.tableRow : null;
+
+			if (element == null) {
+				return;
+			}
+
+			if (element.isMayContainText()) {
+				this.mayContainText = element;
+			}
+			if (element.isMayContainParagraph()) {
+				this.mayContainParagraph = element;
+			}
+			if (element.isMayContainStrong()) {
+				this.mayContainStrong = element;
+			}
+			if (element.isMayContainItalic()) {
+				this.mayContainItalic = element;
+			}
+			if (element.isMayContainUnderline()) {
+				this.mayContainUnderline = element;
+			}
+			if (element.isMayContainStrikeThrough()) {
+				this.mayContainStrikeThrough = element;
+			}
+			if (ElementType.PARAGRAPH.equals(element.getType())) {
+				this.paragraph = (ParagraphParsingElement) element;
+			} else if (ElementType.TABLE.equals(element.getType())) {
+				this.table = (TableParsingElement) element;
+			} else if (ElementType.TABLE_ROW.equals(element.getType())) {
+				this.tableRow = (TableRowParsingElement) element;
+			}
+		}
+	}
+
+}
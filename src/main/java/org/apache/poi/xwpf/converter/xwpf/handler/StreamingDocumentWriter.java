@@ -0,0 +1,485 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.handler;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import javax.xml.namespace.QName;
+
+import org.apache.poi.POIXMLDocumentPart;
+import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
+import org.apache.poi.xwpf.converter.xwpf.zip.FileParts;
+import org.apache.poi.xwpf.converter.xwpf.zip.PrecompressedParts;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTDocument1;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRow;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTbl;
+
+/**
+ * This class writes the main document part while the XHTML document is being
+ * parsed. Completed body elements (paragraphs, tables) are serialized into the
+ * zip and removed from the in-memory document, so memory use does not depend
+ * on the document length.
+ * 
+ * Rows of a long table can be removed from the document before the table is
+ * complete, see {@link #flushRows(XWPFTable)}. They are written into a
+ * temporary file, because the column grid of the table precedes its rows and
+ * is only known when the table is complete.
+ * 
+ * The envelope of the document part (root element, body start, section
+ * properties) and all other parts (styles, numbering, images, relationships,
+ * etc.) are written exactly as POI writes them.
+ * 
+ * A stored (not deflated) document part needs its CRC and size before the
+ * content, so it is written into a temporary file first and copied into the
+ * zip when it is complete.
+ * 
+ * @author Anton
+ * 
+ */
+public class StreamingDocumentWriter {
+
+	private static final String ENCODING = "UTF-8";
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final Pattern BODY_START = Pattern
+			.compile("<([\\w.-]+:)?body(\\s[^>/]*)?(/?)>");
+
+	private final DocXZipOutputStream zip;
+	private final XWPFDocument document;
+	private final String documentEntryName;
+	// Temporary file holding a stored document part, null if the part is
+	// deflated into the zip directly
+	private final File documentFile;
+	private final OutputStream documentOut;
+	private final Writer writer;
+	private final XmlOptions fragmentOptions;
+	// Namespace URIs of the document by prefix
+	private final Map<String, String> namespaces = new HashMap<String, String>();
+	// Table whose first rows are written, null if none
+	private XWPFTable openTable;
+	// Temporary file and writer holding the written rows of the open table
+	private File tableRowsFile;
+	private Writer tableRowsWriter;
+
+	/**
+	 * Creates a new writer and starts the main document part.
+	 * 
+	 * @param out
+	 *            DocX output stream
+	 * @param document
+	 *            document being converted
+	 * @param options
+	 *            conversion options
+	 * @param precompressedParts
+	 *            precompressed parts of the template, may be null
+	 * @param fileParts
+	 *            parts copied from files, may be null
+	 * @throws IOException
+	 */
+	public StreamingDocumentWriter(OutputStream out, XWPFDocument document,
+			XWPFOptions options, PrecompressedParts precompressedParts,
+			FileParts fileParts) throws IOException {
+		this.zip = new DocXZipOutputStream(out,
+				options.getXmlCompressionLevel(),
+				options.getMediaCompressionLevel(), null, precompressedParts,
+				fileParts);
+		this.document = document;
+		this.documentEntryName = document.getPackagePart().getPartName()
+				.getName().substring(1);
+
+		XmlCursor cursor = document.getDocument().newCursor();
+		try {
+			cursor.getAllNamespaces(this.namespaces);
+		} finally {
+			cursor.dispose();
+		}
+		this.fragmentOptions = fragmentOptions();
+		this.fragmentOptions.setSaveImplicitNamespaces(this.namespaces);
+
+		if (options.getXmlCompressionLevel() == Deflater.NO_COMPRESSION) {
+			this.documentFile = File.createTempFile("document", ".xml");
+			this.documentOut = new FileOutputStream(this.documentFile);
+		} else {
+			this.documentFile = null;
+			this.zip.putNextEntry(new ZipEntry(this.documentEntryName));
+			this.documentOut = this.zip;
+		}
+		this.writer = new BufferedWriter(new OutputStreamWriter(
+				this.documentOut, ENCODING));
+
+		String envelope = this.serializeEnvelope();
+		Matcher body = this.findBody(envelope);
+		this.writer.write(envelope, 0, body.start());
+		this.writer.write(this.bodyStartTag(body));
+	}
+
+	/**
+	 * This method writes all body elements of the document to the document
+	 * part and removes them from the document. It must be called only when
+	 * none of the body elements can be modified anymore.
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		List<IBodyElement> bodyElements = this.document.getBodyElements();
+		while (!bodyElements.isEmpty()) {
+			this.writeFirstBodyElement();
+		}
+	}
+
+	/**
+	 * This method writes the rows of the table to a temporary file and
+	 * removes them from the table. The first call also writes all body
+	 * elements before the table. The table with its properties and grid, the
+	 * rows in the file and the remaining rows are written to the document
+	 * part when the table is flushed as a body element. It must be called
+	 * only when none of the rows and of the body elements before the table
+	 * can be modified anymore.
+	 * 
+	 * @param table
+	 *            table of the document body
+	 * @return number of written rows
+	 * @throws IOException
+	 */
+	public int flushRows(XWPFTable table) throws IOException {
+		if (table != this.openTable) {
+			List<IBodyElement> bodyElements = this.document.getBodyElements();
+			if (!bodyElements.contains(table)) {
+				throw new IllegalStateException(
+						"Table is not a body element of the document");
+			}
+			while (bodyElements.get(0) != table) {
+				this.writeFirstBodyElement();
+			}
+
+			this.tableRowsFile = File.createTempFile("rows", ".xml");
+			this.tableRowsWriter = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(this.tableRowsFile), ENCODING));
+			this.openTable = table;
+		}
+		return this.writeRows(table, this.tableRowsWriter);
+	}
+
+	/**
+	 * This method writes the first body element and removes it from the
+	 * document.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeFirstBodyElement() throws IOException {
+		IBodyElement element = this.document.getBodyElements().get(0);
+		if (element == this.openTable) {
+			this.writeOpenTable();
+		} else {
+			XmlObject xml;
+			if (element instanceof XWPFParagraph) {
+				xml = ((XWPFParagraph) element).getCTP();
+			} else {
+				xml = ((XWPFTable) element).getCTTbl();
+			}
+			this.writer.write(xml.xmlText(this.fragmentOptions));
+		}
+		this.document.removeBodyElement(0);
+	}
+
+	/**
+	 * This method writes the complete open table: its start with the
+	 * properties and grid, the rows in the temporary file, the remaining
+	 * rows and its end.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeOpenTable() throws IOException {
+		CTTbl cTTbl = this.openTable.getCTTbl();
+		this.writer.write(this.tag(cTTbl, false));
+		if (cTTbl.getTblPr() != null) {
+			this.writer.write(cTTbl.getTblPr().xmlText(this.fragmentOptions));
+		}
+		if (cTTbl.getTblGrid() != null) {
+			this.writer.write(cTTbl.getTblGrid().xmlText(this.fragmentOptions));
+		}
+
+		// The file holds UTF-8 like the document part, so it is copied
+		this.tableRowsWriter.close();
+		this.writer.flush();
+		InputStream rows = new FileInputStream(this.tableRowsFile);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = rows.read(buffer)) != -1) {
+				this.documentOut.write(buffer, 0, read);
+			}
+		} finally {
+			rows.close();
+		}
+		delete(this.tableRowsFile);
+		this.tableRowsFile = null;
+		this.tableRowsWriter = null;
+
+		this.writeRows(this.openTable, this.writer);
+		this.writer.write(this.tag(cTTbl, true));
+		this.openTable = null;
+	}
+
+	/**
+	 * This method writes all rows of the table and removes them from the
+	 * table.
+	 * 
+	 * @param table
+	 *            table
+	 * @param out
+	 *            writer of the rows
+	 * @return number of written rows
+	 * @throws IOException
+	 */
+	private int writeRows(XWPFTable table, Writer out) throws IOException {
+		List<XWPFTableRow> rows = table.getRows();
+		int count = rows.size();
+		for (XWPFTableRow row : rows) {
+			out.write(row.getCtRow().xmlText(this.fragmentOptions));
+		}
+		// XWPFTable.removeRow shifts the remaining rows and counts the tr
+		// elements, so all rows are removed at once
+		rows.clear();
+		table.getCTTbl().setTrArray(new CTRow[0]);
+		return count;
+	}
+
+	/**
+	 * This method returns the start or end tag of the element, with the
+	 * prefix used when the body elements are saved.
+	 * 
+	 * @param xml
+	 *            element
+	 * @param end
+	 *            if true, the end tag
+	 * @return tag
+	 */
+	private String tag(XmlObject xml, boolean end) {
+		QName name;
+		XmlCursor cursor = xml.newCursor();
+		try {
+			name = cursor.getName();
+		} finally {
+			cursor.dispose();
+		}
+		for (Map.Entry<String, String> namespace : this.namespaces.entrySet()) {
+			if (namespace.getValue().equals(name.getNamespaceURI())) {
+				String prefix = namespace.getKey();
+				return (end ? "</" : "<")
+						+ (prefix.length() > 0 ? prefix + ":" : "")
+						+ name.getLocalPart() + ">";
+			}
+		}
+		throw new IllegalStateException("Undeclared namespace: "
+				+ name.getNamespaceURI());
+	}
+
+	/**
+	 * This method writes the remaining body elements, completes the document
+	 * part and writes all other parts of the package.
+	 * 
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		this.flush();
+
+		// The body holds the section properties only
+		String envelope = this.serializeEnvelope();
+		Matcher body = this.findBody(envelope);
+		if (body.group(3).length() > 0) {
+			this.writer.write(this.bodyEndTag(body));
+		}
+		this.writer.write(envelope, body.end(), envelope.length() - body.end());
+		if (this.documentFile != null) {
+			this.writer.close();
+			try {
+				this.zip.putFileEntry(this.documentEntryName, this.documentFile);
+			} finally {
+				delete(this.documentFile);
+			}
+		} else {
+			this.writer.flush();
+			this.zip.closeEntry();
+		}
+
+		this.copyOtherParts();
+		this.zip.finish();
+	}
+
+	/**
+	 * This method deletes the temporary files of the document part and of
+	 * the open table, if any. It is called instead of {@link #finish()} when
+	 * the conversion fails.
+	 */
+	public void abort() {
+		if (this.tableRowsFile != null) {
+			try {
+				this.tableRowsWriter.close();
+			} catch (IOException e) {
+				// the file is deleted anyway
+			}
+			delete(this.tableRowsFile);
+		}
+		if (this.documentFile != null) {
+			try {
+				this.writer.close();
+			} catch (IOException e) {
+				// the file is deleted anyway
+			}
+			delete(this.documentFile);
+		}
+	}
+
+	/**
+	 * This method deletes the temporary file. If it cannot be deleted now,
+	 * it is deleted when the virtual machine exits.
+	 * 
+	 * @param file
+	 *            temporary file
+	 */
+	private static void delete(File file) {
+		if (!file.delete() && file.exists()) {
+			System.out.println("Unable to delete temporary file: " + file);
+			file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * This method writes all parts except the main document part into the
+	 * output, as POI writes the package. POI also writes the main document
+	 * part, whose content is discarded.
+	 * 
+	 * @throws IOException
+	 */
+	private void copyOtherParts() throws IOException {
+		this.zip.discardEntry(this.documentEntryName);
+		this.document.write(this.zip);
+	}
+
+	/**
+	 * This method serializes the document part as POI does.
+	 * 
+	 * @return document part content
+	 * @throws IOException
+	 */
+	private String serializeEnvelope() throws IOException {
+		ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+		this.document.getDocument().save(envelope, documentOptions());
+		return envelope.toString(ENCODING);
+	}
+
+	/**
+	 * This method finds the body start tag.
+	 * 
+	 * @param envelope
+	 *            document part content
+	 * @return matcher positioned at the body start tag
+	 */
+	private Matcher findBody(String envelope) {
+		Matcher body = BODY_START.matcher(envelope);
+		if (!body.find()) {
+			throw new IllegalStateException("Document body not found");
+		}
+		return body;
+	}
+
+	/**
+	 * @return the body start tag, also for an empty body element
+	 */
+	private String bodyStartTag(Matcher body) {
+		if (body.group(3).length() > 0) {
+			return body.group().substring(0, body.group().length() - 2) + ">";
+		}
+		return body.group();
+	}
+
+	/**
+	 * @return the body end tag
+	 */
+	private String bodyEndTag(Matcher body) {
+		return "</" + (body.group(1) != null ? body.group(1) : "") + "body>";
+	}
+
+	/**
+	 * This method returns the options POI uses to save the document part.
+	 * 
+	 * @return save options
+	 */
+	private static XmlOptions documentOptions() {
+		XmlOptions options = fragmentOptions();
+		options.setSaveSyntheticDocumentElement(new QName(CTDocument1.type
+				.getName().getNamespaceURI(), "document"));
+		return options;
+	}
+
+	/**
+	 * This method returns the options used to save body elements. They are
+	 * the document part options without the document element name.
+	 * 
+	 * @return save options
+	 */
+	private static XmlOptions fragmentOptions() {
+		XmlOptions options = new XmlOptions(
+				POIXMLDocumentPart.DEFAULT_XML_OPTIONS);
+		Map<String, String> prefixes = new HashMap<String, String>();
+		prefixes.put(
+				"http://schemas.openxmlformats.org/officeDocument/2006/math",
+				"m");
+		prefixes.put("urn:schemas-microsoft-com:office:office", "o");
+		prefixes.put(
+				"http://schemas.openxmlformats.org/officeDocument/2006/relationships",
+				"r");
+		prefixes.put("urn:schemas-microsoft-com:vml", "v");
+		prefixes.put(
+				"http://schemas.openxmlformats.org/markup-compatibility/2006",
+				"ve");
+		prefixes.put(
+				"http://schemas.openxmlformats.org/wordprocessingml/2006/main",
+				"w");
+		prefixes.put("urn:schemas-microsoft-com:office:word", "w10");
+		prefixes.put("http://schemas.microsoft.com/office/word/2006/wordml",
+				"wne");
+		prefixes.put(
+				"http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing",
+				"wp");
+		options.setSaveSuggestedPrefixes(prefixes);
+		return options;
+	}
+
+}
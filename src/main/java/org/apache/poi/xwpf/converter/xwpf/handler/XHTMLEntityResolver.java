@@ -13,14 +13,22 @@
  */
 package org.apache.poi.xwpf.converter.xwpf.handler;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
+import org.apache.poi.xwpf.converter.xwpf.common.ConversionUtil;
 import org.apache.poi.xwpf.converter.xwpf.entity.DataAccess;
+import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 
 /**
- * Entity resolver class for resolving local DTD.
+ * Entity resolver class for resolving local DTD. The DTD and entity files are
+ * read from the classpath once and served from memory afterwards.
  * 
  * @author Anton
  * 
@@ -30,6 +38,8 @@ public class XHTMLEntityResolver implements EntityResolver {
 	public static final Logger logger = Logger
 			.getLogger(XHTMLEntityResolver.class.getName());
 
+	private static final ConcurrentMap<String, byte[]> ENTITIES = new ConcurrentHashMap<String, byte[]>();
+
 	/**
 	 * This class loads processing DTDs from the classpath. The DTDs are packaged in the 
 	 * resources folder.
@@ -41,12 +51,55 @@ public class XHTMLEntityResolver implements EntityResolver {
 		InputSource result = null;
 
 		//Extract the file name only from the path
-		String[] tokens = systemId.split("/");
-		String dtdFile = tokens[tokens.length - 1];
+		String dtdFile = systemId.substring(systemId.lastIndexOf('/') + 1);
 
-		result = new InputSource(DataAccess.class.getResourceAsStream(dtdFile));
+		result = new InputSource(new ByteArrayInputStream(getEntity(dtdFile)));
+		result.setPublicId(publicId);
+		result.setSystemId(systemId);
 
 		return result;
 	}
 
+	/**
+	 * This method returns the content of the DTD or entity file, loading it on
+	 * first use.
+	 * 
+	 * @param dtdFile
+	 *            file name
+	 * @return file content
+	 */
+	private static byte[] getEntity(String dtdFile) {
+		byte[] entity = ENTITIES.get(dtdFile);
+
+		if (entity == null) {
+			entity = loadEntity(dtdFile);
+			byte[] existing = ENTITIES.putIfAbsent(dtdFile, entity);
+			if (existing != null) {
+				entity = existing;
+			}
+		}
+		return entity;
+	}
+
+	/**
+	 * This method reads the DTD or entity file from the classpath.
+	 * 
+	 * @param dtdFile
+	 *            file name
+	 * @return file content
+	 */
+	private static byte[] loadEntity(String dtdFile) {
+		InputStream in = DataAccess.class.getResourceAsStream(dtdFile);
+		if (in == null) {
+			throw new XWPFDocumentConversionException("Entity not found: "
+					+ dtdFile);
+		}
+
+		try {
+			return ConversionUtil.readFully(in, 0);
+		} catch (IOException e) {
+			throw new XWPFDocumentConversionException(e);
+		}
+	}
+
 }
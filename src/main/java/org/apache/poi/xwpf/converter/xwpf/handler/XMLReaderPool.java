@@ -0,0 +1,112 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.handler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * This class pools XMLReader instances, so the parser lookup and configuration
+ * is not repeated for every conversion. The pool is bounded; readers above the
+ * bound are simply dropped.
+ * 
+ * @author Anton
+ * 
+ */
+public class XMLReaderPool {
+
+	private static final XMLReaderPool INSTANCE = new XMLReaderPool(Runtime
+			.getRuntime().availableProcessors() * 2);
+
+	/**
+	 * Handler bound to idle readers, so they do not keep the last document
+	 * alive.
+	 */
+	private static final DefaultHandler IDLE_HANDLER = new DefaultHandler();
+
+	private static final XHTMLEntityResolver ENTITY_RESOLVER = new XHTMLEntityResolver();
+
+	private final BlockingQueue<XMLReader> readers;
+
+	/**
+	 * Creates a new pool.
+	 * 
+	 * @param capacity
+	 *            maximum number of idle readers
+	 */
+	public XMLReaderPool(int capacity) {
+		this.readers = new ArrayBlockingQueue<XMLReader>(Math.max(1, capacity));
+	}
+
+	/**
+	 * Returns a static instance of the pool.
+	 * 
+	 * @return a static instance of the pool
+	 */
+	public static XMLReaderPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * This method returns an idle reader, or creates a new one, and binds the
+	 * handler to it.
+	 * 
+	 * @param handler
+	 *            content and error handler
+	 * @return XML reader
+	 * @throws SAXException
+	 */
+	public XMLReader acquire(DefaultHandler handler) throws SAXException {
+		XMLReader reader = this.readers.poll();
+		if (reader == null) {
+			reader = XMLReaderFactory.createXMLReader();
+			reader.setEntityResolver(ENTITY_RESOLVER);
+		}
+		reader.setContentHandler(handler);
+		reader.setErrorHandler(handler);
+		return reader;
+	}
+
+	/**
+	 * This method returns the reader to the pool. Readers that failed to parse
+	 * are discarded, because their internal state is not guaranteed to be
+	 * clean.
+	 * 
+	 * @param reader
+	 *            XML reader
+	 * @param failed
+	 *            true if the last parse did not complete
+	 */
+	public void release(XMLReader reader, boolean failed) {
+		if (reader == null || failed) {
+			return;
+		}
+		reader.setContentHandler(IDLE_HANDLER);
+		reader.setErrorHandler(IDLE_HANDLER);
+		this.readers.offer(reader);
+	}
+
+	/**
+	 * This method removes all idle readers.
+	 */
+	public void clear() {
+		this.readers.clear();
+	}
+
+}
@@ -19,6 +19,8 @@ import java.io.OutputStream;
 
 import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
 import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.converter.xwpf.metrics.ConversionMetrics;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
 
 /**
  * This class represents a converter from Strict XHTML to Microsoft Word (docx)
@@ -54,6 +56,25 @@ public class XWPFConverter {
 		convert(in, contentHandler, options);
 	}
 
+	/**
+	 * This method converts XHTML document into XWPFDocument document without
+	 * writing it out.
+	 * 
+	 * @param in
+	 *            input stream with XML document
+	 * @param options
+	 *            conversion options.
+	 * @return converted document
+	 */
+	public XWPFDocument convertToDocument(InputStream in, XWPFOptions options)
+			throws XWPFDocumentConversionException, IOException {
+
+		XWPFDocumentContentHandler contentHandler = new XWPFDocumentContentHandler(
+				null);
+		convert(in, contentHandler, options);
+		return contentHandler.getDocument();
+	}
+
 	/**
 	 * This method converts XHTML document into XWPFDocument document.
 	 * 
@@ -67,12 +88,24 @@ public class XWPFConverter {
 	protected void convert(InputStream in,
 			XWPFDocumentContentHandler contentHandler, XWPFOptions options)
 			throws XWPFDocumentConversionException, IOException {
+		options = options != null ? options : XWPFOptions.getDefault();
+		ConversionMetrics metrics = new ConversionMetrics(
+				options.getMetricsListener());
+		long start = metrics.start();
+		boolean successful = false;
 		try {
-			options = options != null ? options : XWPFOptions.getDefault();
-			XWPFMapper mapper = new XWPFMapper(in, contentHandler, options);
+			contentHandler.setOut(metrics.countOutput(contentHandler.getOut()));
+			XWPFMapper mapper = new XWPFMapper(metrics.countInput(in),
+					contentHandler, options, metrics);
 			mapper.map();
+			successful = true;
 		} catch (Exception e) {
 			throw new XWPFDocumentConversionException(e);
+		} finally {
+			if (!successful) {
+				contentHandler.abortStreaming();
+			}
+			metrics.conversionCompleted(start, successful);
 		}
 	}
 
@@ -17,9 +17,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
+import org.apache.poi.xwpf.converter.xwpf.common.TemplateConstants;
 import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
-import org.apache.poi.xwpf.converter.xwpf.template.DocXTemplate;
+import org.apache.poi.xwpf.converter.xwpf.template.DocXTemplateCache;
+import org.apache.poi.xwpf.converter.xwpf.template.DocXTemplatePrototype;
+import org.apache.poi.xwpf.converter.xwpf.zip.FileParts;
+import org.apache.poi.xwpf.converter.xwpf.zip.PrecompressedParts;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageSz;
 
 /**
@@ -32,6 +37,11 @@ public class XWPFDocumentContentHandler {
 
 	private OutputStream out;
 	private XWPFDocument document;
+	private StreamingDocumentWriter streamingWriter;
+	// Compressed template parts, null without template
+	private PrecompressedParts precompressedParts;
+	// Parts copied from files when the document is written
+	private FileParts fileParts;
 
 	/**
 	 * Prevents initialization.
@@ -58,6 +68,7 @@ public class XWPFDocumentContentHandler {
 	 *            if true, will use existing template
 	 */
 	public void createDocument(boolean useTemplate) {
+		this.fileParts = new FileParts();
 		if (useTemplate) {
 			this.document = this.createDocumentFromTemplate();
 		} else {
@@ -66,18 +77,20 @@ public class XWPFDocumentContentHandler {
 	}
 
 	/**
-	 * This method creates a document from pre-existing template
+	 * This method creates a document from pre-existing template. The template
+	 * is parsed (and its static parts compressed) once and cached, see
+	 * DocXTemplateCache.
 	 * 
 	 * @return new document
 	 */
 	private XWPFDocument createDocumentFromTemplate() {
 		XWPFDocument bulletTemplate = null;
 		try {
-			bulletTemplate = DocXTemplate.getEmptyBulletDocumentTemplate();
-
-			for (int i = 0; i < bulletTemplate.getBodyElements().size(); i++) {
-				bulletTemplate.removeBodyElement(i);
-			}
+			DocXTemplatePrototype prototype = DocXTemplateCache.getInstance()
+					.getPrototype(
+							TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE);
+			bulletTemplate = prototype.newDocument();
+			this.precompressedParts = prototype.getPrecompressedParts();
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new XWPFDocumentConversionException(e);
@@ -109,15 +122,86 @@ public class XWPFDocumentContentHandler {
 	}
 
 	/**
-	 * This method completes the document processing by writing it out to 
-	 * the output stream.
+	 * This method starts writing the document to the output stream while it
+	 * is being converted. Without output stream, it does nothing.
+	 * 
+	 * @param options
+	 *            processing options
+	 */
+	public void startStreaming(XWPFOptions options) {
+		if (out != null) {
+			try {
+				this.streamingWriter = new StreamingDocumentWriter(out,
+						this.document, options, this.precompressedParts,
+						this.fileParts);
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new XWPFDocumentConversionException(e);
+			}
+		}
+	}
+
+	/**
+	 * This method writes completed body elements to the output stream, if the
+	 * document is streamed. It must be called only when none of the body
+	 * elements can be modified anymore.
+	 */
+	public void flushCompletedElements() {
+		if (this.streamingWriter != null) {
+			try {
+				this.streamingWriter.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new XWPFDocumentConversionException(e);
+			}
+		}
+	}
+
+	/**
+	 * This method writes the completed rows of a table of the document body
+	 * to the output stream, if the document is streamed. It must be called
+	 * only when none of the rows can be modified anymore.
 	 * 
-	 * @throws IOException
+	 * @param table
+	 *            table of the document body
+	 * @return number of written rows, 0 if the document is not streamed
+	 */
+	public int flushTableRows(XWPFTable table) {
+		if (this.streamingWriter != null) {
+			try {
+				return this.streamingWriter.flushRows(table);
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new XWPFDocumentConversionException(e);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * This method completes the document processing by writing it out to
+	 * the output stream with the default options.
 	 */
 	public void endDocument() {
+		this.endDocument(XWPFOptions.getDefault());
+	}
+
+	/**
+	 * This method completes the document processing by writing it out to
+	 * the output stream.
+	 *
+	 * @param options
+	 *            processing options
+	 */
+	public void endDocument(XWPFOptions options) {
 		if (out != null) {
 			try {
-				this.document.write(out);
+				if (this.streamingWriter != null) {
+					this.streamingWriter.finish();
+				} else {
+					this.document.write(DocXZipOutputStream.create(out, options,
+							this.precompressedParts, this.fileParts));
+				}
 				out.flush();
 				out.close();
 			} catch (IOException e) {
@@ -127,6 +211,24 @@ public class XWPFDocumentContentHandler {
 		}
 	}
 
+	/**
+	 * This method releases the resources of a streamed document whose
+	 * conversion failed. Without streaming, it does nothing.
+	 */
+	public void abortStreaming() {
+		if (this.streamingWriter != null) {
+			this.streamingWriter.abort();
+			this.streamingWriter = null;
+		}
+	}
+
+	/**
+	 * @return the parts copied from files when the document is written
+	 */
+	public FileParts getFileParts() {
+		return fileParts;
+	}
+
 	/**
 	 * @return the out
 	 */
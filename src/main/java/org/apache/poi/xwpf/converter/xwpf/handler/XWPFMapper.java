@@ -19,6 +19,7 @@ import java.util.List;
 
 import org.apache.poi.xwpf.converter.xwpf.bo.AbstractParsingElement;
 import org.apache.poi.xwpf.converter.xwpf.bo.HyperlinkParsingElement;
+import org.apache.poi.xwpf.converter.xwpf.bo.DocumentImages;
 import org.apache.poi.xwpf.converter.xwpf.bo.ImageParsingElement;
 import org.apache.poi.xwpf.converter.xwpf.bo.ParagraphParsingElement;
 import org.apache.poi.xwpf.converter.xwpf.bo.TableCellParsingElement;
@@ -26,15 +27,18 @@ import org.apache.poi.xwpf.converter.xwpf.bo.TableParsingElement;
 import org.apache.poi.xwpf.converter.xwpf.bo.TableRowParsingElement;
 import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
 import org.apache.poi.xwpf.converter.xwpf.common.ConversionUtil;
-import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
 import org.apache.poi.xwpf.converter.xwpf.common.HTMLConstants;
+import org.apache.poi.xwpf.converter.xwpf.common.HTMLTag;
 import org.apache.poi.xwpf.converter.xwpf.common.StyleConstants;
 import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.converter.xwpf.image.DataUriImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.FileImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.metrics.ConversionMetrics;
+import org.apache.poi.xwpf.converter.xwpf.metrics.ConversionPhase;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * Content handler class for parsing XHTML document and mapping it to DocX
@@ -47,10 +51,13 @@ public class XWPFMapper extends DefaultHandler {
 	private InputStream in;
 	private XWPFDocumentContentHandler docxHandler;
 	private XWPFOptions options;
+	private ConversionMetrics metrics;
+	private DocumentImages images;
+	// Images whose pictures are not added to the document yet, in order
+	private final List<ImageParsingElement> pendingImages = new ArrayList<ImageParsingElement>();
 	private AbstractParsingElement currentTopLevelElement;
-	private TableRowParsingElement currentRow;
-	private StringBuffer currentTextBuffer;
-	private List<AbstractParsingElement> parsingTree;
+	private final StringBuilder currentTextBuffer = new StringBuilder();
+	private ParsingElementStack openElements;
 	private boolean bulletList;
 	private boolean numberedList;
 	private int numberedListValue = 3;
@@ -76,10 +83,37 @@ public class XWPFMapper extends DefaultHandler {
 	public XWPFMapper(InputStream in, XWPFDocumentContentHandler docxHandler,
 			XWPFOptions options) {
 
+		this(in, docxHandler, options, null);
+	}
+
+	/**
+	 * Creates a new instance XHTML Content Handler for parsing XHTML document.
+	 * 
+	 * @param in
+	 *            input stream
+	 * @param docxHandler
+	 *            content handler for handling DocX document
+	 * @param options
+	 *            processing options
+	 * @param metrics
+	 *            metrics of the conversion; if null, metrics are reported to
+	 *            the listener of the options
+	 */
+	public XWPFMapper(InputStream in, XWPFDocumentContentHandler docxHandler,
+			XWPFOptions options, ConversionMetrics metrics) {
+
 		super();
 		this.in = in;
 		this.docxHandler = docxHandler;
 		this.options = options != null ? options : XWPFOptions.getDefault();
+		this.metrics = metrics != null ? metrics : new ConversionMetrics(
+				this.options.getMetricsListener());
+		// Mapped images are copied only into a package written to the output
+		long mappedImageThreshold = docxHandler.getOut() != null ? this.options
+				.getMappedImageThreshold() : 0;
+		this.images = new DocumentImages(this.options.getImageResolvers(),
+				this.options.getImageCache(),
+				this.options.getImageLoadingExecutor(), mappedImageThreshold);
 
 	}
 
@@ -89,90 +123,121 @@ public class XWPFMapper extends DefaultHandler {
 	 * @throws Exception
 	 */
 	public void map() throws Exception {
-		XMLReader xr = XMLReaderFactory.createXMLReader();
-		xr.setContentHandler(this);
-		xr.setEntityResolver(new XHTMLEntityResolver());
-		xr.setErrorHandler(this);
-		xr.parse(new InputSource(in));
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader xr = pool.acquire(this);
+		boolean failed = true;
+		long start = this.metrics.start();
+		try {
+			xr.parse(new InputSource(in));
+			failed = false;
+			this.metrics.parseCompleted(start);
+		} finally {
+			pool.release(xr, failed);
+		}
 	}
 
 	@Override
 	public final void startDocument() {
+		long start = this.metrics.start();
 		this.docxHandler.createDocument(true);
+		this.metrics.nestedPhaseCompleted(ConversionPhase.TEMPLATE, start);
 		this.docxHandler.startDocument();
 		this.docxHandler.setDocumentSize(options);
-		parsingTree = new ArrayList<AbstractParsingElement>();
+		if (this.options.isStreamingOutput()) {
+			this.docxHandler.startStreaming(this.options);
+		}
+		this.openElements = new ParsingElementStack();
 	}
 
 	@Override
 	public final void startElement(String uri, String name, String qName,
 			Attributes atts) {
 
-		name = this.normalizeName(name);
+		HTMLTag tag = HTMLTag.forName(name);
 		this.flushStringBuffer();
 		AbstractParsingElement newElement = null;
 
 		//System.out.println("Element: " + name);
 
-		if (HTMLConstants.HTML_TAG.equals(name)) {
-			// Do nothing
-		} else if (HTMLConstants.TABLE_TAG.equals(name)) {
-			newElement = this.handleTableStart(atts);
-		} else if (HTMLConstants.TBODY_TAG.equals(name)) {
-			// Do nothing. Not needed in DocX
-		} else if (HTMLConstants.THEAD_TAG.equals(name)) {
-			// Do nothing. Not needed in DocX
-		} else if (HTMLConstants.TFOOT_TAG.equals(name)) {
-			// Do nothing. Not needed in DocX
-		} else if (HTMLConstants.TR_TAG.equals(name)) {
-			newElement = this.handleTableRowStart(atts);
-		} else if (HTMLConstants.TD_TAG.equals(name)) {
-			newElement = this.handleTableCellStart(atts);
-		} else if (HTMLConstants.TH_TAG.equals(name)) {
-			newElement = this.handleTableCellStart(atts);
-		} else if (HTMLConstants.P_TAG.equals(name)) {
-			newElement = this.handleParagraphStart(atts);
-		} else if (HTMLConstants.STRONG_TAG.equals(name)) {
-			this.handleStrongStart(atts);
-		} else if (HTMLConstants.A_TAG.equals(name)) {
-			newElement = this.handleHyperlinkStart(atts);
-		} else if (HTMLConstants.UL_TAG.equals(name)) {
-			this.handleBulletListStart(atts);
-		} else if (HTMLConstants.OL_TAG.equals(name)) {
-			this.handleNumberedListStart(atts);
-		} else if (HTMLConstants.LI_TAG.equals(name)) {
-			newElement = this.handleParagraphStart(atts);
-			newElement.setBullet(this.bulletList);
-			newElement.setNumbering(this.numberedList);
-			newElement.setNumberedListValue(this.numberedListValue);
-		} else if (HTMLConstants.IMG_TAG.equals(name)) {
-			newElement = this.handleImageStart(atts);
-		} else if (HTMLConstants.BR_TAG.equals(name)) {
-			this.handleLineBreakStart(atts);
-		} else if (HTMLConstants.EM_TAG.equals(name)) {
-			this.handleItalicStart(atts);
-		} else if (HTMLConstants.S_TAG.equals(name)) {
-			this.handleStrikeThroughStart(atts);
-		} else if (HTMLConstants.U_TAG.equals(name)) {
-			this.handleUnderlineStart(atts);
-		} else if (HTMLConstants.HR_TAG.equals(name)) {
-			newElement = this.handleHorizontalLineStart(atts);
-		} else if (HTMLConstants.H1_TAG.equals(name)) {
-			newElement = this.handleHeadingLevel(atts, 1);
-		} else if (HTMLConstants.H2_TAG.equals(name)) {
-			newElement = this.handleHeadingLevel(atts, 2);
-		} else if (HTMLConstants.H3_TAG.equals(name)) {
-			newElement = this.handleHeadingLevel(atts, 3);
-		} else if (HTMLConstants.H4_TAG.equals(name)) {
-			newElement = this.handleHeadingLevel(atts, 4);
-		} else if (HTMLConstants.H5_TAG.equals(name)) {
-			newElement = this.handleHeadingLevel(atts, 5);
-		} else if (HTMLConstants.H6_TAG.equals(name)) {
-			newElement = this.handleHeadingLevel(atts, 6);
-		} else if (HTMLConstants.SPAN_TAG.equals(name)) {
-			newElement = this.handleSpanStart(atts);
-		} else if (HTMLConstants.CAPTION_TAG.equals(name)) {
-			this.handleTableCaptionStart();
+		if (tag != null) {
+			switch (tag) {
+			case TABLE:
+				newElement = this.handleTableStart(atts);
+				break;
+			case TR:
+				newElement = this.handleTableRowStart(atts);
+				break;
+			case TD:
+			case TH:
+				newElement = this.handleTableCellStart(atts);
+				break;
+			case P:
+				newElement = this.handleParagraphStart(atts);
+				break;
+			case STRONG:
+				this.handleStrongStart(atts);
+				break;
+			case A:
+				newElement = this.handleHyperlinkStart(atts);
+				break;
+			case UL:
+				this.handleBulletListStart(atts);
+				break;
+			case OL:
+				this.handleNumberedListStart(atts);
+				break;
+			case LI:
+				newElement = this.handleParagraphStart(atts);
+				newElement.setBullet(this.bulletList);
+				newElement.setNumbering(this.numberedList);
+				newElement.setNumberedListValue(this.numberedListValue);
+				break;
+			case IMG:
+				newElement = this.handleImageStart(atts);
+				break;
+			case BR:
+				this.handleLineBreakStart(atts);
+				break;
+			case EM:
+				this.handleItalicStart(atts);
+				break;
+			case S:
+				this.handleStrikeThroughStart(atts);
+				break;
+			case U:
+				this.handleUnderlineStart(atts);
+				break;
+			case HR:
+				newElement = this.handleHorizontalLineStart(atts);
+				break;
+			case H1:
+				newElement = this.handleHeadingLevel(atts, 1);
+				break;
+			case H2:
+				newElement = this.handleHeadingLevel(atts, 2);
+				break;
+			case H3:
+				newElement = this.handleHeadingLevel(atts, 3);
+				break;
+			case H4:
+				newElement = this.handleHeadingLevel(atts, 4);
+				break;
+			case H5:
+				newElement = this.handleHeadingLevel(atts, 5);
+				break;
+			case H6:
+				newElement = this.handleHeadingLevel(atts, 6);
+				break;
+			case SPAN:
+				newElement = this.handleSpanStart(atts);
+				break;
+			case CAPTION:
+				this.handleTableCaptionStart();
+				break;
+			default:
+				// html, tbody, thead, tfoot. Not needed in DocX
+				break;
+			}
 		} else {
 			// development only. Remove before releasing code
 			// throw new XWPFDocumentConversionException(" Unsupported tag: "
@@ -180,8 +245,9 @@ public class XWPFMapper extends DefaultHandler {
 		}
 
 		if (newElement != null) {
-			this.parsingTree.add(newElement);
+			this.metrics.elementCreated(newElement.getType());
 		}
+		this.openElements.push(newElement);
 
 	}
 
@@ -189,9 +255,9 @@ public class XWPFMapper extends DefaultHandler {
 	 * This method handles table caption start.
 	 */
 	private void handleTableCaptionStart() {
-		TableParsingElement table = this.findLastTableElement();
+		TableParsingElement table = this.openElements.getInnermostTable();
 		table.setMayContainText(true);
-		table.setParsingTree(this.parsingTree);
+		this.openElements.refresh();
 	}
 
 	/**
@@ -215,7 +281,11 @@ public class XWPFMapper extends DefaultHandler {
 			paragraphParsingElement.setStandAloneSpan(true);
 			createdNew = true;
 		} else {
-			paragraphParsingElement = this.findLastParagraphElement();
+			paragraphParsingElement = this.openElements.getInnermostParagraph();
+			if (paragraphParsingElement == null) {
+				paragraphParsingElement = this.createNewParagraph();
+				createdNew = true;
+			}
 		}
 
 		this.handleSpanAttributes(paragraphParsingElement, atts);
@@ -340,9 +410,11 @@ public class XWPFMapper extends DefaultHandler {
 	 *            attributes
 	 */
 	private void handleUnderlineStart(Attributes atts) {
-		AbstractParsingElement lastMayContainUnderlineElement = this
-				.findLastMayContainUnderlineElement();
-		lastMayContainUnderlineElement.setUnderline(true);
+		AbstractParsingElement lastMayContainUnderlineElement = this.openElements
+				.getInnermostMayContainUnderline();
+		if (lastMayContainUnderlineElement != null) {
+			lastMayContainUnderlineElement.setUnderline(true);
+		}
 	}
 
 	/**
@@ -352,9 +424,11 @@ public class XWPFMapper extends DefaultHandler {
 	 *            attributes
 	 */
 	private void handleStrikeThroughStart(Attributes atts) {
-		AbstractParsingElement lastMayContainStrikeThroughElement = this
-				.findLastMayContainStrikeThroughElement();
-		lastMayContainStrikeThroughElement.setStrikeThrough(true);
+		AbstractParsingElement lastMayContainStrikeThroughElement = this.openElements
+				.getInnermostMayContainStrikeThrough();
+		if (lastMayContainStrikeThroughElement != null) {
+			lastMayContainStrikeThroughElement.setStrikeThrough(true);
+		}
 
 	}
 
@@ -365,9 +439,11 @@ public class XWPFMapper extends DefaultHandler {
 	 *            attributes
 	 */
 	private void handleItalicStart(Attributes atts) {
-		AbstractParsingElement lastMayContainItalicElement = this
-				.findLastMayContainItalicElement();
-		lastMayContainItalicElement.setItalic(true);
+		AbstractParsingElement lastMayContainItalicElement = this.openElements
+				.getInnermostMayContainItalic();
+		if (lastMayContainItalicElement != null) {
+			lastMayContainItalicElement.setItalic(true);
+		}
 	}
 
 	/**
@@ -377,12 +453,7 @@ public class XWPFMapper extends DefaultHandler {
 	 *            attributes
 	 */
 	private void handleLineBreakStart(Attributes atts) {
-		ParagraphParsingElement lastParagraph = this.findLastParagraphElement();
-
-		if (lastParagraph == null) {
-			lastParagraph = this.createNewParagraph();
-			this.parsingTree.add(lastParagraph);
-		}
+		ParagraphParsingElement lastParagraph = this.findOrCreateParagraph();
 		lastParagraph.addLineBreak();
 	}
 
@@ -395,16 +466,39 @@ public class XWPFMapper extends DefaultHandler {
 	 */
 	private AbstractParsingElement handleImageStart(Attributes atts) {
 
-		ParagraphParsingElement lastParagraph = this.findLastParagraphElement();
+		ParagraphParsingElement lastParagraph = this.findOrCreateParagraph();
 		ImageParsingElement imageParsingElement = new ImageParsingElement(
 				lastParagraph, docxHandler.getDocument(),
 				this.options.isWebBasedProcessing());
 		this.handleImageAttributes(atts, imageParsingElement);
-		imageParsingElement.createImage();
+		long start = this.metrics.start();
+		imageParsingElement.createImage(this.images);
+		this.pendingImages.add(imageParsingElement);
+		if (this.options.getImageLoadingExecutor() == null) {
+			this.bindPendingImages(start);
+		}
 
 		return imageParsingElement;
 	}
 
+	/**
+	 * This method adds the pictures of the loaded images to the document, in
+	 * document order, waiting for images still being loaded.
+	 * 
+	 * @param start
+	 *            start of the image loading phase
+	 */
+	private void bindPendingImages(long start) {
+		if (this.pendingImages.isEmpty()) {
+			return;
+		}
+		for (ImageParsingElement image : this.pendingImages) {
+			image.bindImage(this.docxHandler.getFileParts());
+		}
+		this.pendingImages.clear();
+		this.metrics.nestedPhaseCompleted(ConversionPhase.IMAGE_LOADING, start);
+	}
+
 	/**
 	 * This method handles image attributes
 	 * 
@@ -469,15 +563,13 @@ public class XWPFMapper extends DefaultHandler {
 			if (HTMLConstants.HTML_ATTRIBUTE_SRC.equalsIgnoreCase(atts
 					.getQName(i)) && atts.getValue(i) != null) {
 
-				String filePath = atts.getValue(i);
-				filePath = filePath.toLowerCase();
-
-				if (filePath.startsWith(HTMLConstants.HTML_ATTRIBUTE_FILE)) {
-					filePath = filePath.substring(
-							HTMLConstants.HTML_ATTRIBUTE_FILE.length(),
-							filePath.length());
+				String source = atts.getValue(i);
+				imageParsingElement.setSource(source);
+				// data URIs are passed to the resolvers as they are
+				if (!DataUriImageResolver.getInstance().supports(source)) {
+					imageParsingElement.setFilePath(FileImageResolver
+							.toFilePath(source));
 				}
-				imageParsingElement.setFilePath(filePath);
 			}
 
 		}
@@ -513,7 +605,7 @@ public class XWPFMapper extends DefaultHandler {
 	 */
 	private AbstractParsingElement handleHyperlinkStart(Attributes atts) {
 
-		ParagraphParsingElement lastParagraph = this.findLastParagraphElement();
+		ParagraphParsingElement lastParagraph = this.findOrCreateParagraph();
 
 		HyperlinkParsingElement hyperlink = new HyperlinkParsingElement(
 				lastParagraph, null, null, docxHandler.getDocument());
@@ -554,9 +646,11 @@ public class XWPFMapper extends DefaultHandler {
 	 *            attributes
 	 */
 	private void handleStrongStart(Attributes atts) {
-		AbstractParsingElement lastMayContainStrongElement = this
-				.findLastMayContainStrongElement();
-		lastMayContainStrongElement.setStrong(true);
+		AbstractParsingElement lastMayContainStrongElement = this.openElements
+				.getInnermostMayContainStrong();
+		if (lastMayContainStrongElement != null) {
+			lastMayContainStrongElement.setStrong(true);
+		}
 	}
 
 	/**
@@ -586,7 +680,8 @@ public class XWPFMapper extends DefaultHandler {
 		AbstractParsingElement containingElement = null;
 
 		if (!topLevel) {
-			containingElement = this.findLastMayContainParagraphElement();
+			containingElement = this.openElements
+					.getInnermostMayContainParagraph();
 		}
 
 		ParagraphParsingElement paragraph = new ParagraphParsingElement(
@@ -599,154 +694,23 @@ public class XWPFMapper extends DefaultHandler {
 	}
 
 	/**
-	 * This method finds the last element in the parsing tree that may contain
-	 * text
-	 * 
-	 * @return the last element in the parsing tree that may contain text
-	 */
-	private AbstractParsingElement findLastMayContainTextElement() {
-		AbstractParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (this.parsingTree.get(j).isMayContainText()) {
-				result = this.parsingTree.get(j);
-				break;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * This method finds the last element in the parsing tree that may contain
-	 * paragraph.
-	 * 
-	 * @return the last element in the parsing tree that may contain paragraph
-	 */
-	private AbstractParsingElement findLastMayContainParagraphElement() {
-		AbstractParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (this.parsingTree.get(j).isMayContainParagraph()) {
-				result = this.parsingTree.get(j);
-				break;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * This method finds the last element in the parsing tree that may contain
-	 * Strong text.
-	 * 
-	 * @return the last element in the parsing tree that may contain strong
-	 */
-	private AbstractParsingElement findLastMayContainStrongElement() {
-		AbstractParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (this.parsingTree.get(j).isMayContainStrong()) {
-				result = this.parsingTree.get(j);
-				break;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * This method finds the last element in the parsing tree that may contain
-	 * Italic.
-	 * 
-	 * @return the last element in the parsing tree that may contain italic
-	 */
-	private AbstractParsingElement findLastMayContainItalicElement() {
-		AbstractParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (this.parsingTree.get(j).isMayContainItalic()) {
-				result = this.parsingTree.get(j);
-				break;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * This method finds the last element in the parsing tree that may contain
-	 * Underline.
-	 * 
-	 * @return the last element in the parsing tree that may contain Underline
-	 */
-	private AbstractParsingElement findLastMayContainUnderlineElement() {
-		AbstractParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (this.parsingTree.get(j).isMayContainUnderline()) {
-				result = this.parsingTree.get(j);
-				break;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * This method finds the last element in the parsing tree that may contain
-	 * Strike Through.
-	 * 
-	 * @return the last element in the parsing tree that may contain Strike
-	 *         Through
-	 */
-	private AbstractParsingElement findLastMayContainStrikeThroughElement() {
-		AbstractParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (this.parsingTree.get(j).isMayContainStrikeThrough()) {
-				result = this.parsingTree.get(j);
-				break;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * This method finds the last paragraph element in the parsing tree
-	 * 
-	 * @return the last paragraph element
-	 */
-	private ParagraphParsingElement findLastParagraphElement() {
-		ParagraphParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (ElementType.PARAGRAPH.equals(this.parsingTree.get(j).getType())) {
-				result = (ParagraphParsingElement) this.parsingTree.get(j);
-				break;
-			}
-		}
-
-		return result;
-	}
-
-	/**
-	 * This method finds the last table element in the parsing tree
+	 * This method returns the innermost open paragraph. If there is none, a
+	 * new paragraph is created for the current container; it is not
+	 * registered as the top level element because it has no end tag.
 	 * 
-	 * @return the last table element
+	 * @return paragraph
 	 */
-	private TableParsingElement findLastTableElement() {
-		TableParsingElement result = null;
-
-		for (int j = this.parsingTree.size() - 1; j >= 0; j--) {
-			if (ElementType.TABLE.equals(this.parsingTree.get(j).getType())) {
-				result = (TableParsingElement) this.parsingTree.get(j);
-				break;
+	private ParagraphParsingElement findOrCreateParagraph() {
+		ParagraphParsingElement paragraph = this.openElements
+				.getInnermostParagraph();
+
+		if (paragraph == null) {
+			paragraph = this.createNewParagraph();
+			if (paragraph == this.currentTopLevelElement) {
+				this.currentTopLevelElement = null;
 			}
 		}
-
-		return result;
+		return paragraph;
 	}
 
 	/**
@@ -758,7 +722,8 @@ public class XWPFMapper extends DefaultHandler {
 	 */
 	private AbstractParsingElement handleTableCellStart(Attributes atts) {
 		TableCellParsingElement cell = new TableCellParsingElement(
-				this.currentRow, docxHandler.getDocument());
+				this.openElements.getInnermostTableRow(),
+				docxHandler.getDocument());
 		this.handleTableCellAttributes(atts, cell);
 		return cell;
 
@@ -926,9 +891,8 @@ public class XWPFMapper extends DefaultHandler {
 	private AbstractParsingElement handleTableRowStart(Attributes atts) {
 
 		TableRowParsingElement row = new TableRowParsingElement(
-				((TableParsingElement) this.currentTopLevelElement),
+				this.openElements.getInnermostTable(),
 				docxHandler.getDocument());
-		this.currentRow = row;
 		this.handleTableRowAttributes(atts, row);
 		return row;
 	}
@@ -981,13 +945,6 @@ public class XWPFMapper extends DefaultHandler {
 			TableParsingElement tableElement) {
 		for (int i = 0; atts != null && i < atts.getLength(); i++) {
 
-			if (HTMLConstants.HTML_ATTRIBUTE_BORDER.equalsIgnoreCase(atts
-					.getQName(i))
-					&& atts.getValue(i) != null
-					&& HTMLConstants.HTML_ATTRIBUTE_VALUE_BORDER_PRESENT
-							.equals(atts.getValue(i))) {
-				tableElement.setBorder(false, false, 4, 0);
-			}
 			if (HTMLConstants.HTML_ATTRIBUTE_CELLPADDING.equalsIgnoreCase(atts
 					.getQName(i)) && atts.getValue(i) != null) {
 				try {
@@ -1062,64 +1019,93 @@ public class XWPFMapper extends DefaultHandler {
 	@Override
 	public final void endElement(String uri, String name, String qName) {
 
-		name = this.normalizeName(name);
+		HTMLTag tag = HTMLTag.forName(name);
 
 		this.flushStringBuffer();
 
-		if (HTMLConstants.HTML_TAG.equals(name)) {
-			// Do nothing
-		} else if (HTMLConstants.TABLE_TAG.equals(name)) {
-			this.handleTableEnd();
-		} else if (HTMLConstants.TBODY_TAG.equals(name)) {
-			// Do nothing. Not needed in DocX
-		} else if (HTMLConstants.THEAD_TAG.equals(name)) {
-			// Do nothing. Not needed in DocX
-		} else if (HTMLConstants.TFOOT_TAG.equals(name)) {
-			// Do nothing. Not needed in DocX
-		} else if (HTMLConstants.TR_TAG.equals(name)) {
-			this.handleTableRowEnd();
-		} else if (HTMLConstants.TD_TAG.equals(name)) {
-			this.handleTableCellEnd();
-		} else if (HTMLConstants.TH_TAG.equals(name)) {
-			this.handleTableCellEnd();
-		} else if (HTMLConstants.P_TAG.equals(name)) {
-			this.handleParagraphEnd();
-		} else if (HTMLConstants.A_TAG.equals(name)) {
-			this.handleHyperlinkEnd();
-		} else if (HTMLConstants.UL_TAG.equals(name)) {
-			this.handleBulletListEnd();
-		} else if (HTMLConstants.OL_TAG.equals(name)) {
-			this.handleNumberedListEnd();
-		} else if (HTMLConstants.LI_TAG.equals(name)) {
-			this.handleParagraphEnd();
-		} else if (HTMLConstants.IMG_TAG.equals(name)) {
-			this.handleImageEnd();
-		} else if (HTMLConstants.BR_TAG.equals(name)) {
-			this.handleLineBreakEnd();
-		} else if (HTMLConstants.EM_TAG.equals(name)) {
-			this.handleItalicEnd();
-		} else if (HTMLConstants.S_TAG.equals(name)) {
-			this.handleStrikeThroughEnd();
-		} else if (HTMLConstants.U_TAG.equals(name)) {
-			this.handleUnderlineEnd();
-		} else if (HTMLConstants.HR_TAG.equals(name)) {
-			this.handleHorizontalLineEnd();
-		} else if (HTMLConstants.H1_TAG.equals(name)) {
-			this.handleHeadingLevelEnd(1);
-		} else if (HTMLConstants.H2_TAG.equals(name)) {
-			this.handleHeadingLevelEnd(2);
-		} else if (HTMLConstants.H3_TAG.equals(name)) {
-			this.handleHeadingLevelEnd(3);
-		} else if (HTMLConstants.H4_TAG.equals(name)) {
-			this.handleHeadingLevelEnd(4);
-		} else if (HTMLConstants.H5_TAG.equals(name)) {
-			this.handleHeadingLevelEnd(5);
-		} else if (HTMLConstants.H6_TAG.equals(name)) {
-			this.handleHeadingLevelEnd(6);
-		} else if (HTMLConstants.SPAN_TAG.equals(name)) {
-			this.handleSpanEnd();
-		} else if (HTMLConstants.CAPTION_TAG.equals(name)) {
-			this.handleTableCaptionEnd();
+		if (tag != null) {
+			switch (tag) {
+			case TABLE:
+				this.handleTableEnd();
+				break;
+			case TR:
+				this.handleTableRowEnd();
+				break;
+			case TD:
+			case TH:
+				this.handleTableCellEnd();
+				break;
+			case P:
+			case LI:
+				this.handleParagraphEnd();
+				break;
+			case A:
+				this.handleHyperlinkEnd();
+				break;
+			case UL:
+				this.handleBulletListEnd();
+				break;
+			case OL:
+				this.handleNumberedListEnd();
+				break;
+			case IMG:
+				this.handleImageEnd();
+				break;
+			case BR:
+				this.handleLineBreakEnd();
+				break;
+			case EM:
+				this.handleItalicEnd();
+				break;
+			case S:
+				this.handleStrikeThroughEnd();
+				break;
+			case U:
+				this.handleUnderlineEnd();
+				break;
+			case HR:
+				this.handleHorizontalLineEnd();
+				break;
+			case H1:
+				this.handleHeadingLevelEnd(1);
+				break;
+			case H2:
+				this.handleHeadingLevelEnd(2);
+				break;
+			case H3:
+				this.handleHeadingLevelEnd(3);
+				break;
+			case H4:
+				this.handleHeadingLevelEnd(4);
+				break;
+			case H5:
+				this.handleHeadingLevelEnd(5);
+				break;
+			case H6:
+				this.handleHeadingLevelEnd(6);
+				break;
+			case SPAN:
+				this.handleSpanEnd();
+				break;
+			case CAPTION:
+				this.handleTableCaptionEnd();
+				break;
+			default:
+				// html, tbody, thead, tfoot, strong. Not needed in DocX
+				break;
+			}
+		}
+
+		AbstractParsingElement closedElement = this.openElements.pop();
+		if (closedElement != null
+				&& closedElement == this.currentTopLevelElement) {
+			this.currentTopLevelElement = null;
+		}
+		if (closedElement != null && !this.openElements.hasOpenElements()) {
+			if (this.options.isStreamingOutput()) {
+				this.bindPendingImages(this.metrics.start());
+			}
+			this.docxHandler.flushCompletedElements();
 		}
 
 	}
@@ -1128,21 +1114,17 @@ public class XWPFMapper extends DefaultHandler {
 	 * This method handles table caption end.
 	 */
 	private void handleTableCaptionEnd() {
-		// Presently, do nothing
+		TableParsingElement table = this.openElements.getInnermostTable();
+		table.setMayContainText(false);
+		this.openElements.refresh();
 	}
 
 	/**
-	 * This method handles span end.
+	 * This method handles span end. A stand-alone span paragraph stops being
+	 * the top level element when its frame is popped.
 	 */
 	private void handleSpanEnd() {
-		if (this.currentTopLevelElement != null
-				& this.currentTopLevelElement.getType().equals(
-						ElementType.PARAGRAPH)
-				&& ((ParagraphParsingElement) this.currentTopLevelElement)
-						.isStandAloneSpan()) {
-			this.currentTopLevelElement = null;
-		}
-
+		// Presently, do nothing
 	}
 
 	/**
@@ -1152,26 +1134,15 @@ public class XWPFMapper extends DefaultHandler {
 	 *            level (e.g., Heading Level 1)
 	 */
 	private void handleHeadingLevelEnd(int level) {
-		this.resetTopLevelParagraphElement();
+		// Presently, do nothing
 	}
 
 	/**
 	 * This method handles horizontal line end.
 	 */
 	private void handleHorizontalLineEnd() {
-		this.resetTopLevelParagraphElement();
-
-	}
+		// Presently, do nothing
 
-	/**
-	 * This method nullifies current top level element if it is a paragraph.
-	 */
-	private void resetTopLevelParagraphElement() {
-		if (this.currentTopLevelElement != null
-				&& this.currentTopLevelElement.getType().equals(
-						ElementType.PARAGRAPH)) {
-			this.currentTopLevelElement = null;
-		}
 	}
 
 	/**
@@ -1203,15 +1174,14 @@ public class XWPFMapper extends DefaultHandler {
 	 * paragraph.
 	 */
 	private void flushStringBuffer() {
-		if (this.currentTextBuffer != null
-				&& this.currentTextBuffer.length() > 0) {
-			AbstractParsingElement lastElementThatMayContainText = this
-					.findLastMayContainTextElement();
+		if (this.currentTextBuffer.length() > 0) {
+			AbstractParsingElement lastElementThatMayContainText = this.openElements
+					.getInnermostMayContainText();
 			if (lastElementThatMayContainText != null) {
 				lastElementThatMayContainText
 						.setParagraphData(this.currentTextBuffer);
 			}
-			this.currentTextBuffer = null;
+			this.currentTextBuffer.setLength(0);
 		}
 	}
 
@@ -1257,12 +1227,11 @@ public class XWPFMapper extends DefaultHandler {
 	 */
 	private void handleParagraphEnd() {
 
-		ParagraphParsingElement lastParagraph = this.findLastParagraphElement();
+		ParagraphParsingElement lastParagraph = this.openElements
+				.getInnermostParagraph();
 		if (lastParagraph.getParagraphData() == null) {
 			lastParagraph.createEmptyRun();
 		}
-
-		resetTopLevelParagraphElement();
 	}
 
 	/**
@@ -1274,24 +1243,33 @@ public class XWPFMapper extends DefaultHandler {
 	}
 
 	/**
-	 * This method handles table row end;
+	 * This method handles table row end. With streaming output, the rows of a
+	 * top-level table are written whenever enough of them are complete.
 	 */
 	private void handleTableRowEnd() {
-		this.currentRow = null;
-
+		TableRowParsingElement row = this.openElements.getInnermostTableRow();
+		TableParsingElement table = row.getTableParsingElement();
+		table.completeRow(row);
+
+		if (this.options.isStreamingOutput()
+				&& this.options.getStreamingTableRows() > 0
+				&& table == this.currentTopLevelElement
+				&& table.getUnflushedRowCount() >= this.options
+						.getStreamingTableRows()) {
+			this.bindPendingImages(this.metrics.start());
+			table.rowsFlushed(this.docxHandler.flushTableRows(table
+					.getDocxTable()));
+		}
 	}
 
 	/**
 	 * This method handles table end.
 	 */
 	private void handleTableEnd() {
-		if (this.currentTopLevelElement != null
-				&& this.currentTopLevelElement.getType().equals(
-						ElementType.TABLE)) {
-			this.currentTopLevelElement = null;
-		}
-		TableParsingElement table = this.findLastTableElement();
+		TableParsingElement table = this.openElements.getInnermostTable();
+		long start = this.metrics.start();
 		table.populateMetaDataUponCompletion();
+		this.metrics.nestedPhaseCompleted(ConversionPhase.TABLE_LAYOUT, start);
 	}
 
 	@Override
@@ -1300,46 +1278,20 @@ public class XWPFMapper extends DefaultHandler {
 		// System.out.println("Current string buffer: " +
 		// this.currentTextBuffer);
 
-		if (this.currentTextBuffer == null) {
-			this.currentTextBuffer = new StringBuffer();
-		}
-
-		for (int i = start; i < start + length; i++) {
-			this.currentTextBuffer.append(ch[i]);
-
-		}
+		this.currentTextBuffer.append(ch, start, length);
 
 		// System.out.println("Populated string buffer to: "
 		// + this.currentTextBuffer);
 	}
 
-	/**
-	 * The method makes all tags lower case
-	 * 
-	 * @param name
-	 *            tag name
-	 * @return normalized tag name
-	 */
-	private String normalizeName(String name) {
-		String result = "";
-		if (name != null) {
-			result = name.toLowerCase();
-		}
-
-		return result;
-	}
-
 	@Override
 	public final void endDocument() {
-		docxHandler.endDocument();
-
-		// System.out.println("************Parsing Tree ***********************");
-		// for (AbstractParsingElement element : this.parsingTree) {
-		// System.out.println("*** " + element.getType().toString()
-		// + "; isTopLevel: " + element.isTopLevel() + "; isBold:"
-		// + element.isStrong() + "; text: "
-		// + element.getParagraphData());
-		// }
+		this.bindPendingImages(this.metrics.start());
+		this.metrics.imageLoaded(this.images.getLoadedBytes());
+
+		long start = this.metrics.start();
+		docxHandler.endDocument(this.options);
+		this.metrics.nestedPhaseCompleted(ConversionPhase.WRITE, start);
 	}
 
 }
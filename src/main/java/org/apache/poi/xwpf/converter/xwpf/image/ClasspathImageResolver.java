@@ -0,0 +1,85 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.poi.xwpf.converter.xwpf.common.ConversionUtil;
+
+/**
+ * This class resolves images from classpath resources
+ * (classpath:images/logo.png).
+ *
+ * @author Anton
+ *
+ */
+public class ClasspathImageResolver implements ImageResolver {
+
+	private static final ClasspathImageResolver INSTANCE = new ClasspathImageResolver(
+			null);
+	private static final String CLASSPATH = "classpath:";
+
+	private final ClassLoader classLoader;
+
+	/**
+	 * Creates a new resolver.
+	 *
+	 * @param classLoader
+	 *            class loader of the resources; if null, the context class
+	 *            loader of the converting thread
+	 */
+	public ClasspathImageResolver(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Returns a static instance of the resolver, using the context class
+	 * loader.
+	 *
+	 * @return a static instance of the resolver
+	 */
+	public static ClasspathImageResolver getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public boolean supports(String source) {
+		return source.regionMatches(true, 0, CLASSPATH, 0, CLASSPATH.length());
+	}
+
+	@Override
+	public String getCacheKey(String source) {
+		return this.classLoader == null ? source : null;
+	}
+
+	@Override
+	public byte[] resolve(String source) throws IOException {
+		String name = source.substring(CLASSPATH.length());
+		if (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+
+		ClassLoader loader = this.classLoader;
+		if (loader == null) {
+			loader = Thread.currentThread().getContextClassLoader();
+		}
+		if (loader == null) {
+			loader = ClasspathImageResolver.class.getClassLoader();
+		}
+		InputStream in = loader.getResourceAsStream(name);
+		return in != null ? ConversionUtil.readFully(in, 0) : null;
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Base64;
+
+import org.apache.poi.xwpf.converter.xwpf.common.HTMLConstants;
+
+/**
+ * This class resolves images embedded in data URIs
+ * (data:image/png;base64,...). Only base64 encoded data is supported. The
+ * images are not cached, they are part of the document already.
+ *
+ * @author Anton
+ *
+ */
+public class DataUriImageResolver implements ImageResolver {
+
+	private static final DataUriImageResolver INSTANCE = new DataUriImageResolver();
+	private static final String BASE64 = ";base64";
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Returns a static instance of the resolver.
+	 *
+	 * @return a static instance of the resolver
+	 */
+	public static DataUriImageResolver getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * This method returns the media type of the data URI.
+	 *
+	 * @param source
+	 *            data URI
+	 * @return media type, e.g. image/png
+	 */
+	public static String getMediaType(String source) {
+		int end = source.indexOf(',');
+		int parameters = source.indexOf(';');
+		if (parameters >= 0 && parameters < end) {
+			end = parameters;
+		}
+		return source.substring(HTMLConstants.HTML_ATTRIBUTE_DATA.length(),
+				end < 0 ? source.length() : end).trim().toLowerCase();
+	}
+
+	@Override
+	public boolean supports(String source) {
+		return source.regionMatches(true, 0, HTMLConstants.HTML_ATTRIBUTE_DATA,
+				0, HTMLConstants.HTML_ATTRIBUTE_DATA.length());
+	}
+
+	@Override
+	public String getCacheKey(String source) {
+		return null;
+	}
+
+	/**
+	 * The data is decoded from the attribute value directly, without copying
+	 * it into another string.
+	 */
+	@Override
+	public byte[] resolve(String source) throws IOException {
+		int comma = source.indexOf(',');
+		if (comma < 0
+				|| !source.regionMatches(true, comma - BASE64.length(), BASE64,
+						0, BASE64.length())) {
+			throw new IOException("Unsupported data URI, base64 expected: "
+					+ source.substring(0, Math.min(source.length(), 64)));
+		}
+
+		ByteBuffer encoded = US_ASCII.encode(CharBuffer.wrap(source, comma + 1,
+				source.length()));
+		try {
+			ByteBuffer decoded = Base64.getMimeDecoder().decode(encoded);
+			byte[] image = new byte[decoded.remaining()];
+			decoded.get(image);
+			return image;
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid base64 data URI", e);
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.image;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.poi.xwpf.converter.xwpf.common.ConversionUtil;
+import org.apache.poi.xwpf.converter.xwpf.common.HTMLConstants;
+
+/**
+ * This class resolves images from local files. It handles any source, so it
+ * is asked last. Sources are lower-cased and the file:/// prefix is removed.
+ *
+ * @author Anton
+ *
+ */
+public class FileImageResolver implements ImageResolver {
+
+	private static final FileImageResolver INSTANCE = new FileImageResolver();
+	private static final char KEY_SEPARATOR = '|';
+
+	/**
+	 * Returns a static instance of the resolver.
+	 *
+	 * @return a static instance of the resolver
+	 */
+	public static FileImageResolver getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * This method returns the file path of the image source.
+	 *
+	 * @param source
+	 *            src attribute of the image
+	 * @return file path
+	 */
+	public static String toFilePath(String source) {
+		String filePath = source.toLowerCase();
+
+		if (filePath.startsWith(HTMLConstants.HTML_ATTRIBUTE_FILE)) {
+			filePath = filePath.substring(
+					HTMLConstants.HTML_ATTRIBUTE_FILE.length(),
+					filePath.length());
+		}
+		return filePath;
+	}
+
+	/**
+	 * This method returns the image file.
+	 *
+	 * @param source
+	 *            src attribute of the image
+	 * @return image file
+	 */
+	public File getFile(String source) {
+		return new File(toFilePath(source));
+	}
+
+	@Override
+	public boolean supports(String source) {
+		return true;
+	}
+
+	/**
+	 * Files are keyed by canonical path, last modification time and length,
+	 * so a changed file is read again.
+	 */
+	@Override
+	public String getCacheKey(String source) throws IOException {
+		File file = this.getFile(source);
+		return new StringBuilder(file.getCanonicalPath())
+				.append(KEY_SEPARATOR).append(file.lastModified())
+				.append(KEY_SEPARATOR).append(file.length()).toString();
+	}
+
+	@Override
+	public byte[] resolve(String source) throws IOException {
+		File file = this.getFile(source);
+		try {
+			return ConversionUtil.readFully(new FileInputStream(file),
+					file.length());
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+}
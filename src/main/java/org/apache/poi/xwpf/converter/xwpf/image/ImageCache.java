@@ -0,0 +1,186 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches image contents across conversions, so images used by
+ * many documents (letterheads, signatures, etc.) are read once. The cache is
+ * thread-safe and holds at most the given number of bytes; the least recently
+ * used images are evicted first. Images larger than the budget are not
+ * cached.
+ *
+ * Keys identify a version of an image file, e.g. its resolved path and last
+ * modification time, so a changed file is read again.
+ *
+ * @author Anton
+ *
+ */
+public class ImageCache {
+
+	private final long maxBytes;
+	private final LinkedHashMap<String, byte[]> images = new LinkedHashMap<String, byte[]>(
+			16, 0.75f, true);
+	private long bytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxBytes
+	 *            maximum total size of the cached images
+	 */
+	public ImageCache(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Invalid cache size: "
+					+ maxBytes);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * This method returns the cached image content.
+	 *
+	 * @param key
+	 *            image key
+	 * @return image content, or null if the image is not cached
+	 */
+	public byte[] get(String key) {
+		byte[] image;
+		synchronized (this.images) {
+			image = this.images.get(key);
+		}
+		if (image != null) {
+			this.hits.incrementAndGet();
+			this.bytesSaved.addAndGet(image.length);
+		} else {
+			this.misses.incrementAndGet();
+		}
+		return image;
+	}
+
+	/**
+	 * This method caches the image content, evicting the least recently used
+	 * images if the budget is exceeded. The content must not be modified
+	 * afterwards.
+	 *
+	 * @param key
+	 *            image key
+	 * @param image
+	 *            image content
+	 */
+	public void put(String key, byte[] image) {
+		if (image.length > this.maxBytes) {
+			return;
+		}
+		synchronized (this.images) {
+			byte[] previous = this.images.put(key, image);
+			this.bytes += image.length;
+			if (previous != null) {
+				this.bytes -= previous.length;
+			}
+
+			Iterator<Map.Entry<String, byte[]>> eldest = this.images
+					.entrySet().iterator();
+			while (this.bytes > this.maxBytes) {
+				this.bytes -= eldest.next().getValue().length;
+				eldest.remove();
+				this.evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * This method removes all images from the cache. Statistics are kept.
+	 */
+	public void clear() {
+		synchronized (this.images) {
+			this.images.clear();
+			this.bytes = 0;
+		}
+	}
+
+	/**
+	 * @return the maximum total size of the cached images
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the total size of the cached images
+	 */
+	public long getBytes() {
+		synchronized (this.images) {
+			return bytes;
+		}
+	}
+
+	/**
+	 * @return the number of cached images
+	 */
+	public int getSize() {
+		synchronized (this.images) {
+			return this.images.size();
+		}
+	}
+
+	/**
+	 * @return the number of images found in the cache
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of images not found in the cache
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return the number of image bytes served from the cache instead of
+	 *         being read
+	 */
+	public long getBytesSaved() {
+		return this.bytesSaved.get();
+	}
+
+	/**
+	 * @return the number of images evicted to stay within the budget
+	 */
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("hits=").append(this.getHits())
+				.append("; misses=").append(this.getMisses())
+				.append("; bytesSaved=").append(this.getBytesSaved())
+				.append("; evictions=").append(this.getEvictions())
+				.append("; bytes=").append(this.getBytes()).append('/')
+				.append(this.maxBytes).toString();
+	}
+
+}
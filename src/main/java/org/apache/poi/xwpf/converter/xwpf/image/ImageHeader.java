@@ -0,0 +1,350 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.image;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * This class holds the picture type and the size in pixels of an image, read
+ * from the image header without decoding the image. PNG, JPEG, GIF, BMP,
+ * TIFF, EMF and WMF are recognized. Only the first bytes are read, except for
+ * JPEG, whose segments are skipped up to the frame header, and TIFF, whose
+ * first directory is read.
+ *
+ * The size of metafiles is their frame at 96 pixels per inch.
+ *
+ * @author Anton
+ *
+ */
+public final class ImageHeader {
+
+	private static final int SCREEN_DPI = 96;
+	private static final double HUNDREDTH_MM_PER_INCH = 2540;
+	private static final int FILE_BUFFER_SIZE = 512;
+
+	private static final int PNG_SIGNATURE = 0x89504E47;
+	private static final int GIF_SIGNATURE = 0x47494638;
+	private static final int TIFF_LITTLE_ENDIAN = 0x49492A00;
+	private static final int TIFF_BIG_ENDIAN = 0x4D4D002A;
+	private static final int EMF_HEADER_RECORD = 0x01000000;
+	private static final int EMF_SIGNATURE = 0x20454D46;
+	private static final int WMF_PLACEABLE = 0xD7CDC69A;
+	private static final int WMF_MEMORY = 0x01000900;
+	private static final int WMF_DISK = 0x02000900;
+	private static final int JPEG_SOI = 0xFFD8;
+	private static final int BMP_SIGNATURE = 0x424D;
+
+	private static final int TIFF_IMAGE_WIDTH = 256;
+	private static final int TIFF_IMAGE_LENGTH = 257;
+	private static final int TIFF_SHORT = 3;
+
+	private final int pictureType;
+	private final int width;
+	private final int height;
+
+	private ImageHeader(int pictureType, int width, int height) {
+		this.pictureType = pictureType;
+		this.width = Math.max(width, 0);
+		this.height = Math.max(height, 0);
+	}
+
+	/**
+	 * This method reads the header of the image.
+	 *
+	 * @param image
+	 *            image content
+	 * @return image header, or null if the format is not recognized
+	 */
+	public static ImageHeader read(byte[] image) {
+		try {
+			return read(new ByteArrayInputStream(image));
+		} catch (IOException e) {
+			// not thrown by byte array streams
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * This method reads the header of the image file.
+	 *
+	 * @param file
+	 *            image file
+	 * @return image header, or null if the format is not recognized
+	 * @throws IOException
+	 */
+	public static ImageHeader read(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file),
+				FILE_BUFFER_SIZE);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * This method reads the header of the image from the stream. The stream
+	 * is not closed.
+	 *
+	 * @param in
+	 *            image stream
+	 * @return image header, or null if the format is not recognized
+	 * @throws IOException
+	 */
+	public static ImageHeader read(InputStream in) throws IOException {
+		HeaderReader reader = new HeaderReader(in);
+		int type = 0;
+		try {
+			int magic = reader.readInt();
+			if (magic == PNG_SIGNATURE) {
+				type = XWPFDocument.PICTURE_TYPE_PNG;
+				// rest of signature, IHDR length and type
+				reader.skip(12);
+				return new ImageHeader(type, reader.readInt(), reader.readInt());
+			} else if (magic == GIF_SIGNATURE) {
+				type = XWPFDocument.PICTURE_TYPE_GIF;
+				reader.skip(2);
+				return new ImageHeader(type, reader.readShortLE(),
+						reader.readShortLE());
+			} else if (magic == TIFF_LITTLE_ENDIAN || magic == TIFF_BIG_ENDIAN) {
+				type = XWPFDocument.PICTURE_TYPE_TIFF;
+				return readTiff(reader, magic == TIFF_LITTLE_ENDIAN);
+			} else if (magic == EMF_HEADER_RECORD) {
+				reader.skip(20);
+				int left = reader.readIntLE();
+				int top = reader.readIntLE();
+				int right = reader.readIntLE();
+				int bottom = reader.readIntLE();
+				if (reader.readInt() != EMF_SIGNATURE) {
+					return null;
+				}
+				type = XWPFDocument.PICTURE_TYPE_EMF;
+				return new ImageHeader(type, toPixels(right - left),
+						toPixels(bottom - top));
+			} else if (magic == WMF_PLACEABLE) {
+				type = XWPFDocument.PICTURE_TYPE_WMF;
+				reader.skip(2);
+				int left = (short) reader.readShortLE();
+				int top = (short) reader.readShortLE();
+				int right = (short) reader.readShortLE();
+				int bottom = (short) reader.readShortLE();
+				int unitsPerInch = reader.readShortLE();
+				if (unitsPerInch == 0) {
+					return new ImageHeader(type, 0, 0);
+				}
+				return new ImageHeader(type, (right - left) * SCREEN_DPI
+						/ unitsPerInch, (bottom - top) * SCREEN_DPI
+						/ unitsPerInch);
+			} else if (magic == WMF_MEMORY || magic == WMF_DISK) {
+				return new ImageHeader(XWPFDocument.PICTURE_TYPE_WMF, 0, 0);
+			} else if (magic >>> 16 == JPEG_SOI) {
+				type = XWPFDocument.PICTURE_TYPE_JPEG;
+				return readJpeg(reader, magic & 0xFFFF);
+			} else if (magic >>> 16 == BMP_SIGNATURE) {
+				type = XWPFDocument.PICTURE_TYPE_BMP;
+				reader.skip(10);
+				int headerSize = reader.readIntLE();
+				if (headerSize == 12) {
+					return new ImageHeader(type, reader.readShortLE(),
+							reader.readShortLE());
+				}
+				return new ImageHeader(type, reader.readIntLE(),
+						Math.abs(reader.readIntLE()));
+			}
+			return null;
+		} catch (EOFException e) {
+			// truncated header: the type is known, the size is not
+			return type != 0 ? new ImageHeader(type, 0, 0) : null;
+		}
+	}
+
+	/**
+	 * This method reads the size from the frame header of a JPEG image.
+	 *
+	 * @param marker
+	 *            first marker after the start of image
+	 */
+	private static ImageHeader readJpeg(HeaderReader reader, int marker)
+			throws IOException {
+		while (true) {
+			while ((marker & 0xFF) == 0xFF) {
+				// fill bytes
+				marker = (marker << 8 | reader.readByte()) & 0xFFFF;
+			}
+			if (marker >>> 8 != 0xFF) {
+				// not a marker, the image is corrupt
+				return new ImageHeader(XWPFDocument.PICTURE_TYPE_JPEG, 0, 0);
+			}
+			int code = marker & 0xFF;
+			if (code == 0xD9 || code == 0xDA) {
+				// end of image or start of scan without frame header
+				return new ImageHeader(XWPFDocument.PICTURE_TYPE_JPEG, 0, 0);
+			}
+			if (code == 0x01 || (code >= 0xD0 && code <= 0xD7)) {
+				// markers without segment
+				marker = reader.readShort();
+				continue;
+			}
+			int length = reader.readShort();
+			if (code >= 0xC0 && code <= 0xCF && code != 0xC4 && code != 0xC8
+					&& code != 0xCC) {
+				// start of frame: precision, height, width
+				reader.skip(1);
+				int height = reader.readShort();
+				return new ImageHeader(XWPFDocument.PICTURE_TYPE_JPEG,
+						reader.readShort(), height);
+			}
+			reader.skip(length - 2);
+			marker = reader.readShort();
+		}
+	}
+
+	/**
+	 * This method reads the size from the first directory of a TIFF image.
+	 */
+	private static ImageHeader readTiff(HeaderReader reader,
+			boolean littleEndian) throws IOException {
+		long offset = reader.readInt(littleEndian) & 0xFFFFFFFFL;
+		reader.skip(offset - reader.getPosition());
+
+		int width = 0;
+		int height = 0;
+		int entries = reader.readShort(littleEndian);
+		for (int i = 0; i < entries && (width == 0 || height == 0); i++) {
+			int tag = reader.readShort(littleEndian);
+			int type = reader.readShort(littleEndian);
+			reader.skip(4);
+			int value;
+			if (type == TIFF_SHORT) {
+				value = reader.readShort(littleEndian);
+				reader.skip(2);
+			} else {
+				value = reader.readInt(littleEndian);
+			}
+			if (tag == TIFF_IMAGE_WIDTH) {
+				width = value;
+			} else if (tag == TIFF_IMAGE_LENGTH) {
+				height = value;
+			}
+		}
+		return new ImageHeader(XWPFDocument.PICTURE_TYPE_TIFF, width, height);
+	}
+
+	/**
+	 * This method converts hundredths of millimeters to pixels.
+	 */
+	private static int toPixels(int hundredthsOfMillimeter) {
+		return (int) Math.round(hundredthsOfMillimeter * SCREEN_DPI
+				/ HUNDREDTH_MM_PER_INCH);
+	}
+
+	/**
+	 * @return the picture type (see XWPFDocument.PICTURE_TYPE_PNG, etc.)
+	 */
+	public int getPictureType() {
+		return pictureType;
+	}
+
+	/**
+	 * @return the width in pixels, 0 if unknown
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height in pixels, 0 if unknown
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * This class reads big and little endian numbers from a stream and
+	 * counts the read bytes.
+	 */
+	private static final class HeaderReader {
+
+		private final InputStream in;
+		private long position;
+
+		HeaderReader(InputStream in) {
+			this.in = in;
+		}
+
+		long getPosition() {
+			return this.position;
+		}
+
+		int readByte() throws IOException {
+			int b = this.in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			this.position++;
+			return b;
+		}
+
+		int readShort() throws IOException {
+			return this.readByte() << 8 | this.readByte();
+		}
+
+		int readShortLE() throws IOException {
+			return this.readByte() | this.readByte() << 8;
+		}
+
+		int readShort(boolean littleEndian) throws IOException {
+			return littleEndian ? this.readShortLE() : this.readShort();
+		}
+
+		int readInt() throws IOException {
+			return this.readShort() << 16 | this.readShort();
+		}
+
+		int readIntLE() throws IOException {
+			return this.readShortLE() | this.readShortLE() << 16;
+		}
+
+		int readInt(boolean littleEndian) throws IOException {
+			return littleEndian ? this.readIntLE() : this.readInt();
+		}
+
+		void skip(long n) throws IOException {
+			if (n < 0) {
+				throw new EOFException("Backward skip");
+			}
+			while (n > 0) {
+				long skipped = this.in.skip(n);
+				if (skipped <= 0) {
+					// skip may return 0 before the end of the stream
+					this.readByte();
+					skipped = 1;
+				} else {
+					this.position += skipped;
+				}
+				n -= skipped;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.image;
+
+import java.io.IOException;
+
+/**
+ * This interface resolves the src attribute of an image to the image content.
+ * Resolvers are registered with XWPFOptions.addImageResolver and are asked in
+ * order, before the built-in resolvers of data URIs, classpath resources and
+ * files.
+ *
+ * Resolvers may be called from several threads at once.
+ *
+ * @author Anton
+ *
+ */
+public interface ImageResolver {
+
+	/**
+	 * This method checks if the resolver handles the image source.
+	 *
+	 * @param source
+	 *            src attribute of the image
+	 * @return true if the image is resolved by this resolver
+	 */
+	boolean supports(String source);
+
+	/**
+	 * This method returns the key of the image in the shared image cache.
+	 *
+	 * @param source
+	 *            src attribute of the image
+	 * @return cache key, or null if the image is not to be cached
+	 * @throws IOException
+	 */
+	String getCacheKey(String source) throws IOException;
+
+	/**
+	 * This method returns the image content.
+	 *
+	 * @param source
+	 *            src attribute of the image
+	 * @return image content, or null if the image does not exist
+	 * @throws IOException
+	 */
+	byte[] resolve(String source) throws IOException;
+
+}
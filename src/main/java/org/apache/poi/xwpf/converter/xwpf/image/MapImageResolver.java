@@ -0,0 +1,56 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.image;
+
+import java.util.Map;
+
+/**
+ * This class resolves images from a map of sources to image contents
+ * supplied by the caller, e.g. charts generated for the document. The images
+ * are not copied and not cached.
+ *
+ * @author Anton
+ *
+ */
+public class MapImageResolver implements ImageResolver {
+
+	private final Map<String, byte[]> images;
+
+	/**
+	 * Creates a new resolver.
+	 *
+	 * @param images
+	 *            image contents by src attribute; the map must not be
+	 *            modified during conversions
+	 */
+	public MapImageResolver(Map<String, byte[]> images) {
+		this.images = images;
+	}
+
+	@Override
+	public boolean supports(String source) {
+		return this.images.containsKey(source);
+	}
+
+	@Override
+	public String getCacheKey(String source) {
+		return null;
+	}
+
+	@Override
+	public byte[] resolve(String source) {
+		return this.images.get(source);
+	}
+
+}
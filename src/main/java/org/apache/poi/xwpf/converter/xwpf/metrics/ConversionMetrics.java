@@ -0,0 +1,242 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
+
+/**
+ * This class collects metrics of a single conversion and reports them to the
+ * listener. When the no-op listener is used, nothing is measured: the clock is
+ * not read and the streams are not wrapped.
+ * 
+ * Instances are used by one conversion (one thread) only.
+ * 
+ * @author Anton
+ * 
+ */
+public final class ConversionMetrics {
+
+	private final ConversionMetricsListener listener;
+	private final boolean enabled;
+	private final int[] elementCounts;
+	private long nestedNanos;
+	private long imageBytes;
+	private CountingInputStream in;
+	private CountingOutputStream out;
+
+	/**
+	 * Creates metrics of a new conversion.
+	 * 
+	 * @param listener
+	 *            metrics listener, may be null
+	 */
+	public ConversionMetrics(ConversionMetricsListener listener) {
+		this.listener = listener != null ? listener
+				: NoOpConversionMetricsListener.getInstance();
+		this.enabled = this.listener != NoOpConversionMetricsListener
+				.getInstance();
+		this.elementCounts = this.enabled ? new int[ElementType.values().length]
+				: null;
+	}
+
+	/**
+	 * @return true if metrics are collected
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * This method returns the start time of a phase.
+	 * 
+	 * @return current time in nanoseconds, 0 if metrics are disabled
+	 */
+	public long start() {
+		return this.enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * This method reports a phase that runs within parsing (template, table
+	 * layout, image loading, write). Its duration is excluded from the PARSE
+	 * phase.
+	 * 
+	 * @param phase
+	 *            conversion phase
+	 * @param start
+	 *            phase start time, see {@link #start()}
+	 */
+	public void nestedPhaseCompleted(ConversionPhase phase, long start) {
+		if (this.enabled) {
+			long duration = System.nanoTime() - start;
+			this.nestedNanos += duration;
+			this.listener.phaseCompleted(phase, duration);
+		}
+	}
+
+	/**
+	 * This method reports the PARSE phase.
+	 * 
+	 * @param start
+	 *            parse start time, see {@link #start()}
+	 */
+	public void parseCompleted(long start) {
+		if (this.enabled) {
+			this.listener.phaseCompleted(ConversionPhase.PARSE,
+					System.nanoTime() - start - this.nestedNanos);
+		}
+	}
+
+	/**
+	 * This method counts a created element.
+	 * 
+	 * @param type
+	 *            element type
+	 */
+	public void elementCreated(ElementType type) {
+		if (this.enabled) {
+			this.elementCounts[type.ordinal()]++;
+		}
+	}
+
+	/**
+	 * This method counts loaded image bytes.
+	 * 
+	 * @param bytes
+	 *            image size
+	 */
+	public void imageLoaded(long bytes) {
+		this.imageBytes += bytes;
+	}
+
+	/**
+	 * This method wraps the input stream to count read bytes.
+	 * 
+	 * @param stream
+	 *            XHTML input stream
+	 * @return counting stream, or the same stream if metrics are disabled
+	 */
+	public InputStream countInput(InputStream stream) {
+		if (!this.enabled || stream == null) {
+			return stream;
+		}
+		this.in = new CountingInputStream(stream);
+		return this.in;
+	}
+
+	/**
+	 * This method wraps the output stream to count written bytes.
+	 * 
+	 * @param stream
+	 *            DocX output stream
+	 * @return counting stream, or the same stream if metrics are disabled
+	 */
+	public OutputStream countOutput(OutputStream stream) {
+		if (!this.enabled || stream == null) {
+			return stream;
+		}
+		this.out = new CountingOutputStream(stream);
+		return this.out;
+	}
+
+	/**
+	 * This method reports the TOTAL phase, element counts and byte counts.
+	 * 
+	 * @param start
+	 *            conversion start time, see {@link #start()}
+	 * @param successful
+	 *            true if the document was converted
+	 */
+	public void conversionCompleted(long start, boolean successful) {
+		if (!this.enabled) {
+			return;
+		}
+		this.listener.phaseCompleted(ConversionPhase.TOTAL, System.nanoTime()
+				- start);
+		for (ElementType type : ElementType.values()) {
+			int count = this.elementCounts[type.ordinal()];
+			if (count > 0) {
+				this.listener.elementsCreated(type, count);
+			}
+		}
+		this.listener.conversionCompleted(successful,
+				this.in != null ? this.in.count : 0L,
+				this.out != null ? this.out.count : 0L, this.imageBytes);
+	}
+
+	/**
+	 * Input stream that counts read bytes.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result != -1) {
+				this.count++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result > 0) {
+				this.count += result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(n);
+			this.count += result;
+			return result;
+		}
+	}
+
+	/**
+	 * Output stream that counts written bytes.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+		private long count;
+
+		private CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.metrics;
+
+import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
+
+/**
+ * This interface receives metrics of conversions. Listeners are shared by all
+ * conversions that use the same options, so implementations have to be
+ * thread-safe.
+ * 
+ * @author Anton
+ * 
+ */
+public interface ConversionMetricsListener {
+
+	/**
+	 * This method is called when a conversion phase completes.
+	 * 
+	 * @param phase
+	 *            conversion phase
+	 * @param durationNanos
+	 *            phase duration in nanoseconds
+	 */
+	void phaseCompleted(ConversionPhase phase, long durationNanos);
+
+	/**
+	 * This method is called once per conversion for each element type that
+	 * was created.
+	 * 
+	 * @param type
+	 *            element type
+	 * @param count
+	 *            number of created elements
+	 */
+	void elementsCreated(ElementType type, int count);
+
+	/**
+	 * This method is called when a conversion completes.
+	 * 
+	 * @param successful
+	 *            true if the document was converted
+	 * @param bytesIn
+	 *            number of XHTML bytes read
+	 * @param bytesOut
+	 *            number of DocX bytes written
+	 * @param imageBytes
+	 *            number of image bytes loaded
+	 */
+	void conversionCompleted(boolean successful, long bytesIn, long bytesOut,
+			long imageBytes);
+}
@@ -0,0 +1,36 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.metrics;
+
+/**
+ * This enum holds conversion phases. All phases except TOTAL are exclusive, so
+ * their durations add up to the total conversion time.
+ * 
+ * @author Anton
+ * 
+ */
+public enum ConversionPhase {
+	/** Creation of the document from the DocX template */
+	TEMPLATE,
+	/** SAX parsing and mapping of XHTML elements, without the phases below */
+	PARSE,
+	/** Table layout once the table is completed */
+	TABLE_LAYOUT,
+	/** Loading of images into the document */
+	IMAGE_LOADING,
+	/** Serialization (zipping) of the document to the output stream */
+	WRITE,
+	/** Whole conversion */
+	TOTAL;
+}
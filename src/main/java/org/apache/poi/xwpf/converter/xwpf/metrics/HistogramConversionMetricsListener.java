@@ -0,0 +1,227 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
+
+/**
+ * This listener collects metrics in memory. Phase durations are kept in
+ * histograms with power-of-two buckets, so percentiles are accurate within a
+ * factor of two and memory use is constant. The listener is thread-safe.
+ * 
+ * @author Anton
+ * 
+ */
+public class HistogramConversionMetricsListener implements
+		ConversionMetricsListener {
+
+	private final Histogram[] phases = new Histogram[ConversionPhase.values().length];
+	private final AtomicLongArray elementCounts = new AtomicLongArray(
+			ElementType.values().length);
+	private final AtomicLong conversions = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong imageBytes = new AtomicLong();
+
+	/**
+	 * Creates a new, empty listener.
+	 */
+	public HistogramConversionMetricsListener() {
+		for (int i = 0; i < this.phases.length; i++) {
+			this.phases[i] = new Histogram();
+		}
+	}
+
+	public void phaseCompleted(ConversionPhase phase, long durationNanos) {
+		this.phases[phase.ordinal()].record(durationNanos);
+	}
+
+	public void elementsCreated(ElementType type, int count) {
+		this.elementCounts.addAndGet(type.ordinal(), count);
+	}
+
+	public void conversionCompleted(boolean successful, long bytesIn,
+			long bytesOut, long imageBytes) {
+		this.conversions.incrementAndGet();
+		if (!successful) {
+			this.failures.incrementAndGet();
+		}
+		this.bytesIn.addAndGet(bytesIn);
+		this.bytesOut.addAndGet(bytesOut);
+		this.imageBytes.addAndGet(imageBytes);
+	}
+
+	/**
+	 * @param phase
+	 *            conversion phase
+	 * @return number of recorded durations of the phase
+	 */
+	public long getCount(ConversionPhase phase) {
+		return this.phases[phase.ordinal()].count.get();
+	}
+
+	/**
+	 * @param phase
+	 *            conversion phase
+	 * @return sum of recorded durations of the phase in nanoseconds
+	 */
+	public long getTotalNanos(ConversionPhase phase) {
+		return this.phases[phase.ordinal()].sum.get();
+	}
+
+	/**
+	 * @param phase
+	 *            conversion phase
+	 * @return longest recorded duration of the phase in nanoseconds
+	 */
+	public long getMaxNanos(ConversionPhase phase) {
+		return this.phases[phase.ordinal()].max.get();
+	}
+
+	/**
+	 * This method returns the upper bound of the bucket that holds the given
+	 * percentile.
+	 * 
+	 * @param phase
+	 *            conversion phase
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return duration in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(ConversionPhase phase, double percentile) {
+		return this.phases[phase.ordinal()].percentile(percentile);
+	}
+
+	/**
+	 * @param type
+	 *            element type
+	 * @return number of created elements of the type
+	 */
+	public long getElementCount(ElementType type) {
+		return this.elementCounts.get(type.ordinal());
+	}
+
+	/**
+	 * @return number of completed conversions, including failed ones
+	 */
+	public long getConversions() {
+		return this.conversions.get();
+	}
+
+	/**
+	 * @return number of failed conversions
+	 */
+	public long getFailures() {
+		return this.failures.get();
+	}
+
+	/**
+	 * @return number of XHTML bytes read
+	 */
+	public long getBytesIn() {
+		return this.bytesIn.get();
+	}
+
+	/**
+	 * @return number of DocX bytes written
+	 */
+	public long getBytesOut() {
+		return this.bytesOut.get();
+	}
+
+	/**
+	 * @return number of image bytes loaded
+	 */
+	public long getImageBytes() {
+		return this.imageBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("conversions=").append(this.getConversions())
+				.append("; failures=").append(this.getFailures())
+				.append("; bytesIn=").append(this.getBytesIn())
+				.append("; bytesOut=").append(this.getBytesOut())
+				.append("; imageBytes=").append(this.getImageBytes());
+		for (ConversionPhase phase : ConversionPhase.values()) {
+			result.append("\n").append(phase).append(": count=")
+					.append(this.getCount(phase)).append("; totalMs=")
+					.append(toMillis(this.getTotalNanos(phase)))
+					.append("; p50Ms=")
+					.append(toMillis(this.getPercentileNanos(phase, 50)))
+					.append("; p99Ms=")
+					.append(toMillis(this.getPercentileNanos(phase, 99)))
+					.append("; maxMs=")
+					.append(toMillis(this.getMaxNanos(phase)));
+		}
+		for (ElementType type : ElementType.values()) {
+			result.append("\n").append(type).append(": ")
+					.append(this.getElementCount(type));
+		}
+		return result.toString();
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * Histogram with power-of-two buckets; bucket i holds values below 2^(i+1).
+	 */
+	private static final class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		private void record(long value) {
+			long positive = Math.max(value, 0L);
+			this.buckets.incrementAndGet(Long.SIZE - 1
+					- Long.numberOfLeadingZeros(positive | 1L));
+			this.count.incrementAndGet();
+			this.sum.addAndGet(positive);
+
+			long current = this.max.get();
+			while (positive > current
+					&& !this.max.compareAndSet(current, positive)) {
+				current = this.max.get();
+			}
+		}
+
+		private long percentile(double percentile) {
+			long total = this.count.get();
+			if (total == 0) {
+				return 0L;
+			}
+
+			long rank = (long) Math.ceil(total * percentile / 100d);
+			long seen = 0;
+			for (int i = 0; i < Long.SIZE; i++) {
+				seen += this.buckets.get(i);
+				if (seen >= rank) {
+					return Math.min(i == Long.SIZE - 1 ? Long.MAX_VALUE
+							: (1L << (i + 1)) - 1, this.max.get());
+				}
+			}
+			return this.max.get();
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.metrics;
+
+import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
+
+/**
+ * This listener ignores all metrics. It is the default; conversions using it
+ * do not measure anything.
+ * 
+ * @author Anton
+ * 
+ */
+public final class NoOpConversionMetricsListener implements
+		ConversionMetricsListener {
+
+	private static final NoOpConversionMetricsListener INSTANCE = new NoOpConversionMetricsListener();
+
+	private NoOpConversionMetricsListener() {
+
+	}
+
+	/**
+	 * Returns a static instance of the listener.
+	 * 
+	 * @return a static instance of the listener
+	 */
+	public static NoOpConversionMetricsListener getInstance() {
+		return INSTANCE;
+	}
+
+	public void phaseCompleted(ConversionPhase phase, long durationNanos) {
+		// Do nothing
+	}
+
+	public void elementsCreated(ElementType type, int count) {
+		// Do nothing
+	}
+
+	public void conversionCompleted(boolean successful, long bytesIn,
+			long bytesOut, long imageBytes) {
+		// Do nothing
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * This class caches template prototypes, so each DocX template is loaded and
+ * parsed only once. Prototypes hold the template without its body content.
+ *
+ * @author Anton
+ *
+ */
+public class DocXTemplateCache {
+
+	private static final DocXTemplateCache INSTANCE = new DocXTemplateCache();
+
+	private final ConcurrentMap<String, DocXTemplatePrototype> prototypes = new ConcurrentHashMap<String, DocXTemplatePrototype>();
+
+	/**
+	 * Returns a static instance of the cache.
+	 *
+	 * @return a static instance of the cache
+	 */
+	public static DocXTemplateCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * This method returns a new empty document based on the given template.
+	 *
+	 * @param templateName
+	 *            template file name (see TemplateConstants)
+	 * @return new document
+	 * @throws IOException
+	 */
+	public XWPFDocument newDocument(String templateName) throws IOException {
+		return this.getPrototype(templateName).newDocument();
+	}
+
+	/**
+	 * This method returns the cached prototype of the template, loading it on
+	 * first use.
+	 *
+	 * @param templateName
+	 *            template file name (see TemplateConstants)
+	 * @return template prototype
+	 * @throws IOException
+	 */
+	public DocXTemplatePrototype getPrototype(String templateName)
+			throws IOException {
+		DocXTemplatePrototype prototype = this.prototypes.get(templateName);
+
+		if (prototype == null) {
+			prototype = this.loadPrototype(templateName);
+			DocXTemplatePrototype existing = this.prototypes.putIfAbsent(
+					templateName, prototype);
+			if (existing != null) {
+				prototype = existing;
+			}
+		}
+		return prototype;
+	}
+
+	/**
+	 * This method removes all cached prototypes.
+	 */
+	public void clear() {
+		this.prototypes.clear();
+	}
+
+	/**
+	 * This method loads the template from the classpath and strips its body.
+	 *
+	 * @param templateName
+	 *            template file name
+	 * @return template prototype
+	 * @throws IOException
+	 */
+	private DocXTemplatePrototype loadPrototype(String templateName)
+			throws IOException {
+		InputStream in = DataAccess.class.getResourceAsStream(templateName);
+		if (in == null) {
+			throw new XWPFDocumentConversionException("Template not found: "
+					+ templateName);
+		}
+
+		XWPFDocument template;
+		try {
+			template = new XWPFDocument(in);
+		} finally {
+			in.close();
+		}
+
+		for (int i = template.getBodyElements().size() - 1; i >= 0; i--) {
+			template.removeBodyElement(i);
+		}
+		return DocXTemplatePrototype.create(template);
+	}
+
+}
@@ -0,0 +1,389 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.template;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.poi.POIXMLDocumentPart;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.openxml4j.opc.PackageProperties;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.openxml4j.util.Nullable;
+import org.apache.poi.xwpf.converter.xwpf.common.ConversionUtil;
+import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.converter.xwpf.zip.PrecompressedParts;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFootnotes;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.poi.xwpf.usermodel.XWPFNumbering;
+import org.apache.poi.xwpf.usermodel.XWPFSettings;
+import org.apache.poi.xwpf.usermodel.XWPFStyles;
+
+/**
+ * This class holds an immutable, pre-serialized copy of a DocX template. The
+ * template is read and serialized once; every call to {@link #newDocument()}
+ * builds the package from the captured bytes of its parts (document, styles,
+ * numbering, settings, theme, etc.) instead of opening the template file
+ * again. POI reads the parts it models, like styles and numbering, when the
+ * document is created.
+ *
+ * @author Anton
+ *
+ */
+public final class DocXTemplatePrototype {
+
+	private final byte[] documentPart;
+	private final String documentPartName;
+	private final String documentContentType;
+	private final List<StaticPart> staticParts;
+	private final List<StaticRelationship> packageRelationships;
+	private final List<StaticRelationship> partRelationships;
+	private final CoreProperties coreProperties;
+	// Null while the prototype is built, see create()
+	private final PrecompressedParts precompressedParts;
+
+	/**
+	 * Private constructor. Use {@link #create(XWPFDocument)}. The prototype
+	 * has no precompressed parts.
+	 */
+	private DocXTemplatePrototype(byte[] documentPart, String documentPartName,
+			String documentContentType, List<StaticPart> staticParts,
+			List<StaticRelationship> packageRelationships,
+			List<StaticRelationship> partRelationships,
+			CoreProperties coreProperties) {
+		this.documentPart = documentPart;
+		this.documentPartName = documentPartName;
+		this.documentContentType = documentContentType;
+		this.staticParts = Collections.unmodifiableList(staticParts);
+		this.packageRelationships = Collections
+				.unmodifiableList(packageRelationships);
+		this.partRelationships = Collections.unmodifiableList(partRelationships);
+		this.coreProperties = coreProperties;
+		this.precompressedParts = null;
+	}
+
+	/**
+	 * Private constructor adding precompressed parts to the prototype.
+	 */
+	private DocXTemplatePrototype(DocXTemplatePrototype prototype,
+			PrecompressedParts precompressedParts) {
+		this.documentPart = prototype.documentPart;
+		this.documentPartName = prototype.documentPartName;
+		this.documentContentType = prototype.documentContentType;
+		this.staticParts = prototype.staticParts;
+		this.packageRelationships = prototype.packageRelationships;
+		this.partRelationships = prototype.partRelationships;
+		this.coreProperties = prototype.coreProperties;
+		this.precompressedParts = precompressedParts;
+	}
+
+	/**
+	 * This method captures the given template document as a prototype. The
+	 * template is serialized once, so the prototype contains the parts exactly
+	 * as POI would write them.
+	 *
+	 * @param template
+	 *            template document
+	 * @return prototype
+	 * @throws IOException
+	 */
+	public static DocXTemplatePrototype create(XWPFDocument template)
+			throws IOException {
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		template.write(serialized);
+
+		try {
+			OPCPackage pkg = OPCPackage.open(new ByteArrayInputStream(
+					serialized.toByteArray()));
+			PackagePart documentPart = pkg.getPartsByRelationshipType(
+					PackageRelationshipTypes.CORE_DOCUMENT).get(0);
+
+			List<StaticPart> staticParts = new ArrayList<StaticPart>();
+			List<StaticRelationship> partRelationships = new ArrayList<StaticRelationship>();
+
+			for (PackagePart part : pkg.getParts()) {
+				if (part.isRelationshipPart()
+						|| part.getPartName().equals(
+								PackagingURIHelper.CORE_PROPERTIES_PART_NAME)) {
+					continue;
+				}
+
+				String partName = part.getPartName().getName();
+				if (part != documentPart) {
+					staticParts.add(new StaticPart(partName, part
+							.getContentType(), ConversionUtil.readFully(
+									part.getInputStream(), 0)));
+				}
+				for (PackageRelationship relationship : part.getRelationships()) {
+					partRelationships.add(StaticRelationship.create(partName,
+							relationship));
+				}
+			}
+
+			List<StaticRelationship> packageRelationships = new ArrayList<StaticRelationship>();
+			for (PackageRelationship relationship : pkg.getRelationships()) {
+				String type = relationship.getRelationshipType();
+				if (!PackageRelationshipTypes.CORE_DOCUMENT.equals(type)
+						&& !PackageRelationshipTypes.CORE_PROPERTIES.equals(type)) {
+					packageRelationships.add(StaticRelationship.create(null,
+							relationship));
+				}
+			}
+
+			DocXTemplatePrototype prototype = new DocXTemplatePrototype(
+					ConversionUtil.readFully(
+							documentPart.getInputStream(), 0), documentPart
+							.getPartName().getName(),
+					documentPart.getContentType(), staticParts,
+					packageRelationships, partRelationships,
+					new CoreProperties(pkg.getPackageProperties()));
+			// The parts are captured from a document built by the prototype
+			return new DocXTemplatePrototype(prototype,
+					PrecompressedParts.capture(prototype.newDocument()));
+
+		} catch (InvalidFormatException e) {
+			throw new XWPFDocumentConversionException(e);
+		}
+	}
+
+	/**
+	 * This method returns a fresh document built from the prototype. Only the
+	 * main document part is parsed.
+	 *
+	 * @return new document
+	 * @throws IOException
+	 */
+	public XWPFDocument newDocument() throws IOException {
+		try {
+			OPCPackage pkg = OPCPackage.create(new ByteArrayOutputStream());
+
+			PackagePartName documentName = PackagingURIHelper
+					.createPartName(this.documentPartName);
+			pkg.addRelationship(documentName, TargetMode.INTERNAL,
+					PackageRelationshipTypes.CORE_DOCUMENT);
+			PackagePart documentPart = pkg.createPart(documentName,
+					this.documentContentType);
+			documentPart.load(new ByteArrayInputStream(this.documentPart));
+
+			for (StaticPart part : this.staticParts) {
+				pkg.createPart(PackagingURIHelper.createPartName(part.name),
+						part.contentType).load(
+						new ByteArrayInputStream(part.data));
+			}
+			for (StaticRelationship relationship : this.packageRelationships) {
+				relationship.addTo(pkg, null);
+			}
+			for (StaticRelationship relationship : this.partRelationships) {
+				relationship.addTo(pkg, pkg.getPart(PackagingURIHelper
+						.createPartName(relationship.sourceName)));
+			}
+
+			// The parts are related to the document before it is created, so
+			// POI reads its styles and numbering
+			XWPFDocument document = new XWPFDocument(pkg);
+
+			// The document part and the parts read by POI are re-written on
+			// save; drop the parsed bytes
+			documentPart.load(new ByteArrayInputStream(new byte[0]));
+			for (POIXMLDocumentPart part : document.getRelations()) {
+				if (isRewrittenOnSave(part)) {
+					part.getPackagePart().load(
+							new ByteArrayInputStream(new byte[0]));
+				}
+			}
+			this.coreProperties.copyTo(pkg.getPackageProperties());
+
+			return document;
+
+		} catch (InvalidFormatException e) {
+			throw new XWPFDocumentConversionException(e);
+		}
+	}
+
+	/**
+	 * This method checks if POI writes the part from its parsed content when
+	 * the document is saved. The bytes such a part was read from are appended
+	 * to, not replaced, by the package created in memory.
+	 *
+	 * @param part
+	 *            part related to the document
+	 * @return true if the part is re-written on save
+	 */
+	private static boolean isRewrittenOnSave(POIXMLDocumentPart part) {
+		return part instanceof XWPFStyles || part instanceof XWPFNumbering
+				|| part instanceof XWPFSettings
+				|| part instanceof XWPFFootnotes
+				|| part instanceof XWPFHeaderFooter;
+	}
+
+	/**
+	 * This method returns the parts of an empty document created from the
+	 * prototype as they are written into the zip. They are compressed once
+	 * and copied into every output that has not changed them.
+	 *
+	 * @return precompressed parts
+	 */
+	public PrecompressedParts getPrecompressedParts() {
+		return this.precompressedParts;
+	}
+
+	/**
+	 * Raw package part.
+	 */
+	private static final class StaticPart {
+		private final String name;
+		private final String contentType;
+		private final byte[] data;
+
+		private StaticPart(String name, String contentType, byte[] data) {
+			this.name = name;
+			this.contentType = contentType;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Relationship between the package (or a part) and a target.
+	 */
+	private static final class StaticRelationship {
+		private final String sourceName;
+		private final String id;
+		private final String type;
+		private final String target;
+		private final TargetMode targetMode;
+
+		private StaticRelationship(String sourceName, String id, String type,
+				String target, TargetMode targetMode) {
+			this.sourceName = sourceName;
+			this.id = id;
+			this.type = type;
+			this.target = target;
+			this.targetMode = targetMode;
+		}
+
+		private static StaticRelationship create(String sourceName,
+				PackageRelationship relationship) {
+			String target;
+			if (relationship.getTargetMode() == TargetMode.EXTERNAL) {
+				target = relationship.getTargetURI().toString();
+			} else {
+				URI targetURI = PackagingURIHelper.resolvePartUri(
+						relationship.getSourceURI(),
+						relationship.getTargetURI());
+				target = targetURI.toString();
+			}
+			return new StaticRelationship(sourceName, relationship.getId(),
+					relationship.getRelationshipType(), target,
+					relationship.getTargetMode());
+		}
+
+		private void addTo(OPCPackage pkg, PackagePart source)
+				throws InvalidFormatException {
+			if (this.targetMode == TargetMode.EXTERNAL) {
+				if (source == null) {
+					pkg.addExternalRelationship(this.target, this.type, this.id);
+				} else {
+					source.addExternalRelationship(this.target, this.type,
+							this.id);
+				}
+			} else {
+				PackagePartName targetName = PackagingURIHelper
+						.createPartName(this.target);
+				if (source == null) {
+					pkg.addRelationship(targetName, TargetMode.INTERNAL,
+							this.type, this.id);
+				} else {
+					source.addRelationship(targetName, TargetMode.INTERNAL,
+							this.type, this.id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Snapshot of the template's core properties.
+	 */
+	private static final class CoreProperties {
+		private final String category;
+		private final String contentStatus;
+		private final String contentType;
+		private final String creator;
+		private final String description;
+		private final String identifier;
+		private final String keywords;
+		private final String language;
+		private final String lastModifiedBy;
+		private final String revision;
+		private final String subject;
+		private final String title;
+		private final String version;
+		private final Nullable<Date> created;
+		private final Nullable<Date> modified;
+		private final Nullable<Date> lastPrinted;
+
+		private CoreProperties(PackageProperties properties) {
+			this.category = properties.getCategoryProperty().getValue();
+			this.contentStatus = properties.getContentStatusProperty()
+					.getValue();
+			this.contentType = properties.getContentTypeProperty().getValue();
+			this.creator = properties.getCreatorProperty().getValue();
+			this.description = properties.getDescriptionProperty().getValue();
+			this.identifier = properties.getIdentifierProperty().getValue();
+			this.keywords = properties.getKeywordsProperty().getValue();
+			this.language = properties.getLanguageProperty().getValue();
+			this.lastModifiedBy = properties.getLastModifiedByProperty()
+					.getValue();
+			this.revision = properties.getRevisionProperty().getValue();
+			this.subject = properties.getSubjectProperty().getValue();
+			this.title = properties.getTitleProperty().getValue();
+			this.version = properties.getVersionProperty().getValue();
+			this.created = properties.getCreatedProperty();
+			this.modified = properties.getModifiedProperty();
+			this.lastPrinted = properties.getLastPrintedProperty();
+		}
+
+		private void copyTo(PackageProperties properties) {
+			properties.setCategoryProperty(this.category);
+			properties.setContentStatusProperty(this.contentStatus);
+			properties.setContentTypeProperty(this.contentType);
+			properties.setCreatorProperty(this.creator);
+			properties.setDescriptionProperty(this.description);
+			properties.setIdentifierProperty(this.identifier);
+			properties.setKeywordsProperty(this.keywords);
+			properties.setLanguageProperty(this.language);
+			properties.setLastModifiedByProperty(this.lastModifiedBy);
+			properties.setRevisionProperty(this.revision);
+			properties.setSubjectProperty(this.subject);
+			properties.setTitleProperty(this.title);
+			properties.setVersionProperty(this.version);
+			properties.setCreatedProperty(this.created);
+			properties.setModifiedProperty(this.modified);
+			properties.setLastPrintedProperty(this.lastPrinted);
+		}
+	}
+
+}
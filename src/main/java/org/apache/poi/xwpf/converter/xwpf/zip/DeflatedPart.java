@@ -0,0 +1,105 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.zip;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * This class holds a package part ready to be written into a zip: the
+ * (possibly compressed) content together with the CRC and the uncompressed
+ * size. Instances are immutable, so they can be shared between conversions.
+ *
+ * @author Anton
+ *
+ */
+public final class DeflatedPart {
+
+	private final String name;
+	private final int method;
+	private final long crc;
+	private final long size;
+	private final byte[] data;
+
+	/**
+	 * Creates a new part.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @param method
+	 *            ZipEntry.DEFLATED or ZipEntry.STORED
+	 * @param crc
+	 *            CRC-32 of the uncompressed content
+	 * @param size
+	 *            uncompressed size
+	 * @param data
+	 *            content as written into the zip; not copied
+	 */
+	public DeflatedPart(String name, int method, long crc, long size,
+			byte[] data) {
+		if (method != ZipEntry.DEFLATED && method != ZipEntry.STORED) {
+			throw new IllegalArgumentException("Invalid method: " + method);
+		}
+		this.name = name;
+		this.method = method;
+		this.crc = crc;
+		this.size = size;
+		this.data = data;
+	}
+
+	/**
+	 * @return the zip entry name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the compression method
+	 */
+	public int getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the CRC-32 of the uncompressed content
+	 */
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @return the uncompressed size
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the compressed size
+	 */
+	public long getCompressedSize() {
+		return data.length;
+	}
+
+	/**
+	 * This method returns the content as written into the zip. The array
+	 * must not be modified.
+	 *
+	 * @return content
+	 */
+	byte[] getData() {
+		return data;
+	}
+
+}
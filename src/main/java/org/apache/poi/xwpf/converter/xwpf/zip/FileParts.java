@@ -0,0 +1,86 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.zip;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class holds the parts of a document whose content is copied from
+ * files when the package is written. Such parts hold a small placeholder in
+ * the document, so large files (scanned images, etc.) are never loaded into
+ * memory; the zip stream maps the files and copies them into the package.
+ *
+ * @author Anton
+ *
+ */
+public class FileParts {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String PLACEHOLDER_PREFIX = "file part ";
+
+	private final Map<String, File> files = new HashMap<String, File>();
+
+	/**
+	 * This method returns the placeholder content of a part copied from the
+	 * file. Placeholders differ for different files, so parts are shared
+	 * only by the same file.
+	 *
+	 * @param key
+	 *            key identifying the file version, e.g. its canonical path and
+	 *            last modification time
+	 * @return placeholder content
+	 */
+	public static byte[] placeholder(String key) {
+		return (PLACEHOLDER_PREFIX + key).getBytes(UTF_8);
+	}
+
+	/**
+	 * This method adds a part copied from the file.
+	 *
+	 * @param partName
+	 *            part name, e.g. /word/media/image1.png
+	 * @param file
+	 *            file holding the content
+	 */
+	public void add(String partName, File file) {
+		this.files.put(toEntryName(partName), file);
+	}
+
+	/**
+	 * This method returns the file of the part.
+	 *
+	 * @param entryName
+	 *            zip entry name, e.g. word/media/image1.png
+	 * @return file holding the content, or null if the part has its own
+	 *         content
+	 */
+	public File get(String entryName) {
+		return this.files.get(entryName);
+	}
+
+	/**
+	 * @return true if no part is copied from a file
+	 */
+	public boolean isEmpty() {
+		return this.files.isEmpty();
+	}
+
+	private static String toEntryName(String partName) {
+		return partName.startsWith("/") ? partName.substring(1) : partName;
+	}
+
+}
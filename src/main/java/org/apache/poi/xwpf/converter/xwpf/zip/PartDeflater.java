@@ -0,0 +1,192 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * This class compresses package parts. Large parts are split into chunks that
+ * are deflated in parallel on the fork-join pool running the task; each chunk
+ * is primed with the last 32K of the previous chunk and ends with a sync
+ * flush, so the concatenated chunks form a single deflate stream that any zip
+ * reader inflates.
+ *
+ * @author Anton
+ *
+ */
+public final class PartDeflater {
+
+	/**
+	 * Size of the chunks large parts are split into.
+	 */
+	public static final int CHUNK_SIZE = 128 * 1024;
+
+	// Maximum deflate window
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private PartDeflater() {
+
+	}
+
+	/**
+	 * This method compresses a part on the calling thread.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @param content
+	 *            uncompressed content
+	 * @param level
+	 *            deflate level; Deflater.NO_COMPRESSION stores the part
+	 * @return compressed part
+	 */
+	public static DeflatedPart deflate(String name, byte[] content, int level) {
+		if (level == Deflater.NO_COMPRESSION) {
+			return new DeflatedPart(name, ZipEntry.STORED, crc(content),
+					content.length, content);
+		}
+		return new DeflatedPart(name, ZipEntry.DEFLATED, crc(content),
+				content.length, deflateChunk(content, 0, content.length,
+						level, true));
+	}
+
+	/**
+	 * This method creates a task compressing the part. Parts larger than
+	 * CHUNK_SIZE are compressed chunk by chunk in parallel.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @param content
+	 *            uncompressed content
+	 * @param level
+	 *            deflate level; Deflater.NO_COMPRESSION stores the part
+	 * @return task to be submitted to a fork-join pool
+	 */
+	public static ForkJoinTask<DeflatedPart> newTask(final String name,
+			final byte[] content, final int level) {
+		return new RecursiveTask<DeflatedPart>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected DeflatedPart compute() {
+				if (level == Deflater.NO_COMPRESSION
+						|| content.length <= CHUNK_SIZE) {
+					return deflate(name, content, level);
+				}
+
+				List<ForkJoinTask<byte[]>> chunks = new ArrayList<ForkJoinTask<byte[]>>();
+				for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+					int length = Math.min(CHUNK_SIZE, content.length - offset);
+					chunks.add(newChunkTask(content, offset, length, level,
+							offset + length == content.length).fork());
+				}
+				long crc = crc(content);
+
+				ByteArrayOutputStream data = new ByteArrayOutputStream(
+						content.length / 4);
+				for (ForkJoinTask<byte[]> chunk : chunks) {
+					byte[] deflated = chunk.join();
+					data.write(deflated, 0, deflated.length);
+				}
+				return new DeflatedPart(name, ZipEntry.DEFLATED, crc,
+						content.length, data.toByteArray());
+			}
+		};
+	}
+
+	/**
+	 * This method creates a task deflating a single chunk.
+	 */
+	private static ForkJoinTask<byte[]> newChunkTask(final byte[] content,
+			final int offset, final int length, final int level,
+			final boolean last) {
+		return new RecursiveTask<byte[]>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected byte[] compute() {
+				return deflateChunk(content, offset, length, level, last);
+			}
+		};
+	}
+
+	/**
+	 * This method deflates a chunk of the content into raw deflate data. The
+	 * preceding 32K of the content are used as the dictionary. The last chunk
+	 * ends the deflate stream; the other chunks end with a sync flush, so the
+	 * next chunk starts at a byte boundary.
+	 *
+	 * @param content
+	 *            uncompressed content
+	 * @param offset
+	 *            chunk start
+	 * @param length
+	 *            chunk length
+	 * @param level
+	 *            deflate level
+	 * @param last
+	 *            true for the last chunk of the content
+	 * @return raw deflate data
+	 */
+	private static byte[] deflateChunk(byte[] content, int offset,
+			int length, int level, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (offset > 0) {
+				int dictionary = Math.min(DICTIONARY_SIZE, offset);
+				deflater.setDictionary(content, offset - dictionary,
+						dictionary);
+			}
+			deflater.setInput(content, offset, length);
+
+			ByteArrayOutputStream data = new ByteArrayOutputStream(
+					length / 4 + 64);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					data.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				int written;
+				do {
+					written = deflater.deflate(buffer, 0, buffer.length,
+							Deflater.SYNC_FLUSH);
+					data.write(buffer, 0, written);
+				} while (written == buffer.length);
+			}
+			return data.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return the CRC-32 of the content
+	 */
+	private static long crc(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		return crc.getValue();
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * This class holds the parts of an empty document as they are written into
+ * the zip, compressed once per deflate level and shared by all documents
+ * created from the same template.
+ *
+ * A part of a converted document is replaced by the precompressed one only if
+ * its content is identical, so parts the conversion changed (content types
+ * after adding images, relationships, etc.) are still compressed per
+ * document.
+ *
+ * @author Anton
+ *
+ */
+public final class PrecompressedParts {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Map<String, byte[]> contents;
+	private final ConcurrentMap<String, DeflatedPart> deflatedParts = new ConcurrentHashMap<String, DeflatedPart>();
+
+	private PrecompressedParts(Map<String, byte[]> contents) {
+		this.contents = Collections.unmodifiableMap(contents);
+	}
+
+	/**
+	 * This method captures the parts of the document as POI writes them. The
+	 * main document part is skipped, it differs for every document.
+	 *
+	 * @param document
+	 *            empty document created from a template
+	 * @return captured parts
+	 * @throws IOException
+	 */
+	public static PrecompressedParts capture(XWPFDocument document)
+			throws IOException {
+		String documentEntryName = document.getPackagePart().getPartName()
+				.getName().substring(1);
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		document.write(serialized);
+
+		Map<String, byte[]> contents = new HashMap<String, byte[]>();
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(
+				serialized.toByteArray()));
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (documentEntryName.equals(entry.getName())) {
+					continue;
+				}
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				int read;
+				while ((read = zip.read(buffer)) != -1) {
+					content.write(buffer, 0, read);
+				}
+				contents.put(entry.getName(), content.toByteArray());
+			}
+		} finally {
+			zip.close();
+		}
+		return new PrecompressedParts(contents);
+	}
+
+	/**
+	 * This method checks if a part with the given name was captured. Only
+	 * such parts need to be buffered for {@link #find(String, byte[], int)}.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @return true if the part was captured
+	 */
+	public boolean contains(String name) {
+		return this.contents.containsKey(name);
+	}
+
+	/**
+	 * This method returns the precompressed part if the content is identical
+	 * to the captured one. The part is compressed on first use for each level.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @param content
+	 *            content written by the conversion
+	 * @param level
+	 *            deflate level
+	 * @return precompressed part, or null if the content differs
+	 */
+	public DeflatedPart find(String name, byte[] content, int level) {
+		byte[] captured = this.contents.get(name);
+		if (captured == null || !Arrays.equals(captured, content)) {
+			return null;
+		}
+
+		String key = level + ":" + name;
+		DeflatedPart part = this.deflatedParts.get(key);
+		if (part == null) {
+			part = PartDeflater.deflate(name, captured, level);
+			DeflatedPart existing = this.deflatedParts.putIfAbsent(key, part);
+			if (existing != null) {
+				part = existing;
+			}
+		}
+		return part;
+	}
+
+}
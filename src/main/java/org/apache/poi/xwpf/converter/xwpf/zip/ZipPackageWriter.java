@@ -0,0 +1,351 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter.xwpf.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * This class writes already compressed parts into a zip. Unlike
+ * ZipOutputStream it does not compress anything itself, so parts can be
+ * compressed in parallel or once for many documents.
+ *
+ * Precompressed entries are written with sizes and CRC in the local header;
+ * entries streamed through the writer have them in a data descriptor, as
+ * ZipOutputStream does. Names are UTF-8. Zip64 is not supported.
+ *
+ * @author Anton
+ *
+ */
+public class ZipPackageWriter {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+	private static final int MAX_ENTRIES = 0xFFFF;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final OutputStream out;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private final int dosTime;
+	private long offset;
+	private int entries;
+
+	// Entry being written
+	private String entryName;
+	private byte[] entryNameBytes;
+	private long entryOffset;
+	// Stored entry being written, see startStoredEntry
+	private long entryCrc;
+	private long entrySize;
+	private long entryDataOffset;
+	private WritableByteChannel channel;
+
+	/**
+	 * Creates a new writer. Entries get the current time.
+	 *
+	 * @param out
+	 *            output stream; not closed by the writer
+	 */
+	public ZipPackageWriter(OutputStream out) {
+		this.out = out;
+		this.dosTime = toDosTime(System.currentTimeMillis());
+	}
+
+	/**
+	 * This method writes a part.
+	 *
+	 * @param part
+	 *            compressed part
+	 * @throws IOException
+	 */
+	public void write(DeflatedPart part) throws IOException {
+		this.checkEntry(part.getName());
+		if (part.getSize() > MAX_SIZE || part.getCompressedSize() > MAX_SIZE) {
+			throw new ZipException("Zip64 is not supported: "
+					+ part.getName());
+		}
+
+		this.writeLocalHeader(part.getName(), FLAG_UTF8, part.getMethod(),
+				part.getCrc(), part.getCompressedSize(), part.getSize());
+		this.out.write(part.getData());
+		this.offset += part.getCompressedSize();
+		this.writeCentralHeader(FLAG_UTF8, part.getMethod(), part.getCrc(),
+				part.getCompressedSize(), part.getSize());
+	}
+
+	/**
+	 * This method starts a deflated entry whose content is written with
+	 * {@link #writeEntryData(byte[], int, int)}. The CRC and sizes follow the
+	 * content in a data descriptor, see
+	 * {@link #endEntry(long, long, long)}.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @throws IOException
+	 */
+	public void startEntry(String name) throws IOException {
+		this.checkEntry(name);
+		this.writeLocalHeader(name, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR,
+				ZipEntry.DEFLATED, 0, 0, 0);
+	}
+
+	/**
+	 * This method starts a stored entry whose content is written with
+	 * {@link #writeEntryData(ByteBuffer)}. The CRC and size must be known in
+	 * advance; the entry is completed by {@link #endStoredEntry()}.
+	 *
+	 * @param name
+	 *            zip entry name
+	 * @param crc
+	 *            CRC-32 of the content
+	 * @param size
+	 *            content size
+	 * @throws IOException
+	 */
+	public void startStoredEntry(String name, long crc, long size)
+			throws IOException {
+		this.checkEntry(name);
+		if (size > MAX_SIZE) {
+			throw new ZipException("Zip64 is not supported: " + name);
+		}
+		this.writeLocalHeader(name, FLAG_UTF8, ZipEntry.STORED, crc, size,
+				size);
+		this.entryCrc = crc;
+		this.entrySize = size;
+		this.entryDataOffset = this.offset;
+	}
+
+	/**
+	 * This method writes content of the current entry from a buffer, e.g. a
+	 * memory-mapped file, without copying it into an array first.
+	 *
+	 * @param data
+	 *            content; its position is moved to the limit
+	 * @throws IOException
+	 */
+	public void writeEntryData(ByteBuffer data) throws IOException {
+		if (this.channel == null) {
+			this.channel = Channels.newChannel(this.out);
+		}
+		while (data.hasRemaining()) {
+			this.offset += this.channel.write(data);
+		}
+	}
+
+	/**
+	 * This method completes the current stored entry.
+	 *
+	 * @throws IOException
+	 */
+	public void endStoredEntry() throws IOException {
+		if (this.offset - this.entryDataOffset != this.entrySize) {
+			throw new ZipException("Unexpected size of " + this.entryName
+					+ ": " + (this.offset - this.entryDataOffset) + " instead of "
+					+ this.entrySize);
+		}
+		this.writeCentralHeader(FLAG_UTF8, ZipEntry.STORED, this.entryCrc,
+				this.entrySize, this.entrySize);
+	}
+
+	/**
+	 * This method writes deflated content of the current entry.
+	 *
+	 * @param b
+	 *            deflated data
+	 * @param off
+	 *            start offset
+	 * @param len
+	 *            number of bytes
+	 * @throws IOException
+	 */
+	public void writeEntryData(byte[] b, int off, int len) throws IOException {
+		this.out.write(b, off, len);
+		this.offset += len;
+	}
+
+	/**
+	 * This method completes the current entry.
+	 *
+	 * @param crc
+	 *            CRC-32 of the uncompressed content
+	 * @param compressedSize
+	 *            number of written bytes
+	 * @param size
+	 *            uncompressed size
+	 * @throws IOException
+	 */
+	public void endEntry(long crc, long compressedSize, long size)
+			throws IOException {
+		if (size > MAX_SIZE || compressedSize > MAX_SIZE) {
+			throw new ZipException("Zip64 is not supported: "
+					+ this.entryName);
+		}
+		ByteArrayOutputStream descriptor = new ByteArrayOutputStream(16);
+		writeInt(descriptor, DATA_DESCRIPTOR_SIGNATURE);
+		writeInt(descriptor, (int) crc);
+		writeInt(descriptor, (int) compressedSize);
+		writeInt(descriptor, (int) size);
+		descriptor.writeTo(this.out);
+		this.offset += descriptor.size();
+		this.writeCentralHeader(FLAG_UTF8 | FLAG_DATA_DESCRIPTOR,
+				ZipEntry.DEFLATED, crc, compressedSize, size);
+	}
+
+	/**
+	 * This method writes the central directory. The output stream is not
+	 * closed.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (this.offset > MAX_SIZE) {
+			throw new ZipException("Zip64 is not supported");
+		}
+		ByteArrayOutputStream end = new ByteArrayOutputStream(22);
+		writeInt(end, END_SIGNATURE);
+		writeShort(end, 0);
+		writeShort(end, 0);
+		writeShort(end, this.entries);
+		writeShort(end, this.entries);
+		writeInt(end, this.centralDirectory.size());
+		writeInt(end, (int) this.offset);
+		writeShort(end, 0);
+
+		this.centralDirectory.writeTo(this.out);
+		end.writeTo(this.out);
+		this.out.flush();
+	}
+
+	/**
+	 * This method checks that another entry can be added.
+	 */
+	private void checkEntry(String name) throws ZipException {
+		if (this.offset > MAX_SIZE || this.entries == MAX_ENTRIES) {
+			throw new ZipException("Zip64 is not supported: " + name);
+		}
+	}
+
+	/**
+	 * This method writes the local header of a new entry.
+	 */
+	private void writeLocalHeader(String name, int flags, int method,
+			long crc, long compressedSize, long size) throws IOException {
+		this.entryName = name;
+		this.entryNameBytes = name.getBytes(UTF_8);
+		this.entryOffset = this.offset;
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream(
+				30 + this.entryNameBytes.length);
+		writeInt(header, LOCAL_HEADER_SIGNATURE);
+		this.writeEntryFields(header, flags, method, crc, compressedSize,
+				size);
+		writeShort(header, 0);
+		header.write(this.entryNameBytes, 0, this.entryNameBytes.length);
+		header.writeTo(this.out);
+		this.offset += header.size();
+	}
+
+	/**
+	 * This method adds the central directory header of the current entry.
+	 */
+	private void writeCentralHeader(int flags, int method, long crc,
+			long compressedSize, long size) {
+		writeInt(this.centralDirectory, CENTRAL_HEADER_SIGNATURE);
+		writeShort(this.centralDirectory, version(method));
+		this.writeEntryFields(this.centralDirectory, flags, method, crc,
+				compressedSize, size);
+		writeShort(this.centralDirectory, 0);
+		writeShort(this.centralDirectory, 0);
+		writeShort(this.centralDirectory, 0);
+		writeShort(this.centralDirectory, 0);
+		writeInt(this.centralDirectory, 0);
+		writeInt(this.centralDirectory, (int) this.entryOffset);
+		this.centralDirectory.write(this.entryNameBytes, 0,
+				this.entryNameBytes.length);
+		this.entries++;
+		this.entryName = null;
+		this.entryNameBytes = null;
+	}
+
+	/**
+	 * This method writes the fields shared by the local and central headers,
+	 * from version needed to file name length.
+	 */
+	private void writeEntryFields(ByteArrayOutputStream header, int flags,
+			int method, long crc, long compressedSize, long size) {
+		writeShort(header, version(method));
+		writeShort(header, flags);
+		writeShort(header, method);
+		writeInt(header, this.dosTime);
+		writeInt(header, (int) crc);
+		writeInt(header, (int) compressedSize);
+		writeInt(header, (int) size);
+		writeShort(header, this.entryNameBytes.length);
+	}
+
+	/**
+	 * @return the version needed to extract entries of the method
+	 */
+	private static int version(int method) {
+		return method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+	}
+
+	/**
+	 * This method converts the time into MS-DOS date and time.
+	 *
+	 * @param time
+	 *            time in milliseconds
+	 * @return MS-DOS date (high 16 bits) and time (low 16 bits)
+	 */
+	private static int toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16
+				| calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5
+				| calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value & 0xFF);
+		out.write((value >>> 8) & 0xFF);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		writeShort(out, value & 0xFFFF);
+		writeShort(out, (value >>> 16) & 0xFFFF);
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.apache.poi.xwpf.converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.poi.xwpf.converter.xwpf.ConversionBatchResult;
+import org.apache.poi.xwpf.converter.xwpf.ConversionEngine;
+import org.apache.poi.xwpf.converter.xwpf.XHTML2XWPFConverter;
+import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.converter.xwpf.template.DataAccess;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This class tests concurrent conversions.
+ *
+ * @author Anton
+ *
+ */
+public class ConversionEngineTestCase {
+
+	private static final String[] SAMPLES = { "text.xhtml", "bo.xhtml",
+			"cv.xhtml", "advanced_table_subset.xhtml", "formatting_test.xhtml",
+			"numbers_test.xhtml", "web_table.xhtml",
+			"advanced_formatting_and_chars_test.xhtml", "cv_p_within_p.xhtml",
+			"test_hyperlink_text.xhtml" };
+
+	private static final int CONVERSIONS = 200;
+
+	@Test
+	public void testConcurrentConversionsMatchSequentialConversions()
+			throws Exception {
+
+		List<String> expected = new ArrayList<String>();
+		for (String sample : SAMPLES) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			XHTML2XWPFConverter.getInstance().convert(
+					DataAccess.class.getResourceAsStream(sample), out, null);
+			expected.add(readDocumentPart(out.toByteArray()));
+		}
+
+		ConversionEngine engine = new ConversionEngine(4, 8);
+		try {
+			List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+			List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+			for (int i = 0; i < CONVERSIONS; i++) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				outputs.add(out);
+				futures.add(engine.convertAsync(DataAccess.class
+						.getResourceAsStream(SAMPLES[i % SAMPLES.length]), out,
+						null));
+			}
+
+			for (int i = 0; i < CONVERSIONS; i++) {
+				futures.get(i).get();
+				Assert.assertEquals(SAMPLES[i % SAMPLES.length],
+						expected.get(i % SAMPLES.length),
+						readDocumentPart(outputs.get(i).toByteArray()));
+			}
+		} finally {
+			engine.close();
+		}
+	}
+
+	@Test
+	public void testFailedConversionCompletesExceptionally() throws Exception {
+
+		ConversionEngine engine = new ConversionEngine(1, 0);
+		try {
+			CompletableFuture<Void> future = engine.convertAsync(
+					new ByteArrayInputStream("<html><p>broken</html>"
+							.getBytes("UTF-8")), new ByteArrayOutputStream(),
+					null);
+			try {
+				future.get();
+				Assert.fail("Malformed XHTML must not be converted");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof XWPFDocumentConversionException);
+			}
+		} finally {
+			engine.close();
+		}
+	}
+
+	@Test
+	public void testConversionCanBeSubmittedOnCompletion() throws Exception {
+
+		final ConversionEngine engine = new ConversionEngine(1, 0);
+		try {
+			final CompletableFuture<Void> next = new CompletableFuture<Void>();
+			engine.convertAsync(
+					DataAccess.class.getResourceAsStream(SAMPLES[0]),
+					new ByteArrayOutputStream(), null).thenRun(new Runnable() {
+				public void run() {
+					// Runs on the worker, whose permit must be released
+					engine.convertAsync(
+							DataAccess.class.getResourceAsStream(SAMPLES[1]),
+							new ByteArrayOutputStream(), null).whenComplete(
+							new BiConsumer<Void, Throwable>() {
+								public void accept(Void ignored,
+										Throwable failure) {
+									next.complete(null);
+								}
+							});
+				}
+			});
+			next.get(30, TimeUnit.SECONDS);
+		} finally {
+			// A blocked daemon worker must not block the test
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchConversionReportsFailedItems() throws Exception {
+
+		List<String> sources = new ArrayList<String>();
+		for (String sample : SAMPLES) {
+			sources.add(sample);
+		}
+		sources.add("missing.xhtml");
+
+		final Map<String, ByteArrayOutputStream> outputs = new ConcurrentHashMap<String, ByteArrayOutputStream>();
+
+		ConversionEngine engine = new ConversionEngine(2, 2);
+		ConversionBatchResult<String> result;
+		try {
+			result = engine.convertAll(sources,
+					new Function<String, InputStream>() {
+						public InputStream apply(String source) {
+							InputStream in = DataAccess.class
+									.getResourceAsStream(source);
+							if (in == null) {
+								throw new XWPFDocumentConversionException(
+										"Not found: " + source);
+							}
+							return in;
+						}
+					}, new Function<String, OutputStream>() {
+						public OutputStream apply(String source) {
+							ByteArrayOutputStream out = new ByteArrayOutputStream();
+							outputs.put(source, out);
+							return out;
+						}
+					}, null);
+		} finally {
+			engine.close();
+		}
+
+		Assert.assertEquals(SAMPLES.length + 1, result.getTotal());
+		Assert.assertEquals(SAMPLES.length, result.getSucceeded());
+		Assert.assertEquals(1, result.getFailures().size());
+		Assert.assertEquals("missing.xhtml", result.getFailures().get(0)
+				.getSource());
+		for (String sample : SAMPLES) {
+			Assert.assertTrue(sample, outputs.get(sample).size() > 0);
+		}
+	}
+
+	/**
+	 * This method extracts the main document part of the DocX package.
+	 *
+	 * @param docx
+	 *            DocX package
+	 * @return content of word/document.xml
+	 * @throws IOException
+	 */
+	private static String readDocumentPart(byte[] docx) throws IOException {
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(docx));
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if ("word/document.xml".equals(entry.getName())) {
+					return new String(readFully(zip), "UTF-8");
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		throw new IOException("word/document.xml not found");
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+}
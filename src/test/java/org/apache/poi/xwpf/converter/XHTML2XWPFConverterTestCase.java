@@ -13,15 +13,63 @@
  */
 package org.apache.poi.xwpf.converter;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.poi.util.Units;
 
 import org.apache.poi.xwpf.converter.xwpf.XHTML2XWPFConverter;
+import org.apache.poi.xwpf.converter.xwpf.bo.XWPFOptions;
+import org.apache.poi.xwpf.converter.xwpf.common.ElementType;
+import org.apache.poi.xwpf.converter.xwpf.common.HTMLConstants;
+import org.apache.poi.xwpf.converter.xwpf.common.TemplateConstants;
+import org.apache.poi.xwpf.converter.xwpf.exception.XWPFDocumentConversionException;
+import org.apache.poi.xwpf.converter.xwpf.handler.DocXZipOutputStream;
+import org.apache.poi.xwpf.converter.xwpf.handler.XWPFConverter;
+import org.apache.poi.xwpf.converter.xwpf.image.ClasspathImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.DataUriImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageCache;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageHeader;
+import org.apache.poi.xwpf.converter.xwpf.image.ImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.image.MapImageResolver;
+import org.apache.poi.xwpf.converter.xwpf.metrics.ConversionPhase;
+import org.apache.poi.xwpf.converter.xwpf.metrics.HistogramConversionMetricsListener;
 import org.apache.poi.xwpf.converter.xwpf.template.DataAccess;
+import org.apache.poi.xwpf.converter.xwpf.template.DocXTemplateCache;
+import org.apache.poi.xwpf.converter.xwpf.template.DocXTemplatePrototype;
+import org.apache.poi.xwpf.converter.xwpf.zip.PrecompressedParts;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFPictureData;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
 import org.junit.Assert;
 import org.junit.Test;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTBorder;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblBorders;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTcPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STBorder;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STMerge;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STTblWidth;
 
 /**
  * This class tests XHTML to DocX conversions. 
@@ -196,4 +244,825 @@ public class XHTML2XWPFConverterTestCase {
 		Assert.assertTrue(outFile.exists());
 	}
 
+	@Test
+	public void testConversionAfterFailedParse() throws Exception {
+
+		try {
+			XHTML2XWPFConverter.getInstance().convert(
+					new ByteArrayInputStream("<html><p>broken</html>"
+							.getBytes("UTF-8")), new ByteArrayOutputStream(),
+					null);
+			Assert.fail("Malformed XHTML must not be converted");
+		} catch (XWPFDocumentConversionException e) {
+			// expected
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("text.xhtml"), baos, null);
+		Assert.assertTrue(baos.size() > 0);
+	}
+
+	@Test
+	public void testConversionMetrics() throws Exception {
+
+		HistogramConversionMetricsListener listener = new HistogramConversionMetricsListener();
+		XWPFOptions options = XWPFOptions.create();
+		options.setMetricsListener(listener);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("advanced_table.xhtml"),
+				baos, options);
+
+		Assert.assertEquals(1, listener.getConversions());
+		Assert.assertEquals(0, listener.getFailures());
+		Assert.assertEquals(1, listener.getCount(ConversionPhase.TOTAL));
+		Assert.assertEquals(1, listener.getCount(ConversionPhase.TEMPLATE));
+		Assert.assertEquals(1, listener.getCount(ConversionPhase.PARSE));
+		Assert.assertEquals(1, listener.getCount(ConversionPhase.WRITE));
+		Assert.assertTrue(listener.getCount(ConversionPhase.TABLE_LAYOUT) > 0);
+		Assert.assertEquals(
+				listener.getCount(ConversionPhase.TABLE_LAYOUT),
+				listener.getElementCount(ElementType.TABLE));
+		Assert.assertTrue(listener.getElementCount(ElementType.TABLE_CELL) > 0);
+		Assert.assertEquals(baos.size(), listener.getBytesOut());
+		Assert.assertTrue(listener.getBytesIn() > 0);
+		Assert.assertTrue(listener.getTotalNanos(ConversionPhase.TOTAL) >= listener
+				.getTotalNanos(ConversionPhase.PARSE));
+	}
+
+	@Test
+	public void testStreamingOutputMatchesInMemoryOutput() throws Exception {
+
+		String[] samples = { "text.xhtml", "cv.xhtml", "advanced_cv.xhtml",
+				"advanced_table.xhtml", "numbers_test.xhtml",
+				"cv_p_within_p.xhtml", "test_hyperlink_text.xhtml" };
+		XWPFOptions streaming = XWPFOptions.create();
+		streaming.setStreamingOutput(true);
+
+		for (String sample : samples) {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			XHTML2XWPFConverter.getInstance().convert(
+					DataAccess.class.getResourceAsStream(sample), expected,
+					null);
+			ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+			XHTML2XWPFConverter.getInstance().convert(
+					DataAccess.class.getResourceAsStream(sample), streamed,
+					streaming);
+
+			Assert.assertEquals(sample,
+					readPart(expected.toByteArray(), "word/document.xml"),
+					readPart(streamed.toByteArray(), "word/document.xml"));
+			XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(
+					streamed.toByteArray()));
+			Assert.assertFalse(sample, document.getBodyElements().isEmpty());
+		}
+	}
+
+	@Test
+	public void testStreamedTableRowsMatchInMemoryOutput() throws Exception {
+
+		StringBuilder xhtml = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><body>"
+						+ "<p>Before</p><table><caption>Rows</caption>");
+		for (int i = 0; i < 25; i++) {
+			xhtml.append("<tr>");
+			if (i % 4 == 0) {
+				xhtml.append("<td rowspan=\"4\" style=\"width:40px\">Group ")
+						.append(i / 4).append("</td>");
+			}
+			xhtml.append("<td>Row ").append(i).append("</td><td>");
+			if (i == 5) {
+				xhtml.append("<table><tr><td>Nested</td></tr></table>");
+			}
+			xhtml.append("</td></tr>");
+		}
+		xhtml.append("</table><p>Between</p><table>");
+		for (int i = 0; i < 12; i++) {
+			xhtml.append("<tr><td>Second ").append(i).append("</td></tr>");
+		}
+		xhtml.append("</table><p>After</p></body></html>");
+		byte[] input = xhtml.toString().getBytes("UTF-8");
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(input), expected, null);
+
+		XWPFOptions options = XWPFOptions.create();
+		options.setStreamingOutput(true);
+		options.setStreamingTableRows(10);
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(input), streamed, options);
+
+		Assert.assertEquals(
+				readPart(expected.toByteArray(), "word/document.xml"),
+				readPart(streamed.toByteArray(), "word/document.xml"));
+		XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(
+				streamed.toByteArray()));
+		List<XWPFTable> tables = document.getTables();
+		Assert.assertEquals(25, tables.get(0).getNumberOfRows());
+		Assert.assertEquals(12, tables.get(tables.size() - 1).getNumberOfRows());
+	}
+
+	@Test
+	public void testStreamedTableGridCoversWiderRows() throws Exception {
+
+		StringBuilder xhtml = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><table>");
+		for (int i = 0; i < 3; i++) {
+			xhtml.append("<tr><td>Row ").append(i).append("</td><td>2</td></tr>");
+		}
+		xhtml.append("<tr><td>Wide</td><td>2</td><td>3</td><td>4</td></tr>");
+		xhtml.append("</table></body></html>");
+		byte[] input = xhtml.toString().getBytes("UTF-8");
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(input), expected, null);
+
+		XWPFOptions options = XWPFOptions.create();
+		options.setStreamingOutput(true);
+		options.setStreamingTableRows(2);
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(input), streamed, options);
+
+		Assert.assertEquals(
+				readPart(expected.toByteArray(), "word/document.xml"),
+				readPart(streamed.toByteArray(), "word/document.xml"));
+		XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(
+				streamed.toByteArray()));
+		Assert.assertEquals(4, document.getTables().get(0).getCTTbl()
+				.getTblGrid().sizeOfGridColArray());
+		Assert.assertEquals(4, document.getTables().get(0).getNumberOfRows());
+	}
+
+	@Test
+	public void testCompressionLevelPerPart() throws Exception {
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("advanced_table.xhtml"),
+				expected, null);
+
+		XWPFOptions options = XWPFOptions.create();
+		options.setXmlCompressionLevel(Deflater.BEST_SPEED);
+		options.setMediaCompressionLevel(Deflater.NO_COMPRESSION);
+		ByteArrayOutputStream fast = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("advanced_table.xhtml"),
+				fast, options);
+
+		int media = 0;
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(
+				fast.toByteArray()));
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.getName().startsWith("word/media/")) {
+					Assert.assertEquals(entry.getName(), ZipEntry.STORED,
+							entry.getMethod());
+					media++;
+				} else {
+					Assert.assertEquals(entry.getName(), ZipEntry.DEFLATED,
+							entry.getMethod());
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		Assert.assertTrue(media > 0);
+		Assert.assertEquals(
+				readPart(expected.toByteArray(), "word/document.xml"),
+				readPart(fast.toByteArray(), "word/document.xml"));
+		Assert.assertFalse(new XWPFDocument(new ByteArrayInputStream(fast
+				.toByteArray())).getBodyElements().isEmpty());
+	}
+
+	@Test
+	public void testStreamingOutputWithStoredXmlParts() throws Exception {
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("advanced_table.xhtml"),
+				expected, null);
+
+		XWPFOptions options = XWPFOptions.create();
+		options.setStreamingOutput(true);
+		options.setStreamingTableRows(10);
+		options.setXmlCompressionLevel(Deflater.NO_COMPRESSION);
+		ByteArrayOutputStream stored = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("advanced_table.xhtml"),
+				stored, options);
+
+		boolean documentFound = false;
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(
+				stored.toByteArray()));
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (DocXZipOutputStream.isXmlPart(entry.getName())) {
+					Assert.assertEquals(entry.getName(), ZipEntry.STORED,
+							entry.getMethod());
+				}
+				documentFound |= "word/document.xml".equals(entry.getName());
+			}
+		} finally {
+			zip.close();
+		}
+		Assert.assertTrue(documentFound);
+		Assert.assertEquals(
+				readPart(expected.toByteArray(), "word/document.xml"),
+				readPart(stored.toByteArray(), "word/document.xml"));
+		Assert.assertFalse(new XWPFDocument(new ByteArrayInputStream(stored
+				.toByteArray())).getBodyElements().isEmpty());
+	}
+
+	@Test
+	public void testParallelCompressionMatchesSequentialCompression()
+			throws Exception {
+
+		XWPFOptions parallel = XWPFOptions.create();
+		parallel.setParallelCompression(true);
+
+		for (String sample : new String[] { "advanced_cv.xhtml",
+				"advanced_table.xhtml" }) {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			XHTML2XWPFConverter.getInstance().convert(
+					DataAccess.class.getResourceAsStream(sample), expected,
+					null);
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			XHTML2XWPFConverter.getInstance().convert(
+					DataAccess.class.getResourceAsStream(sample), actual,
+					parallel);
+
+			Map<String, String> expectedParts = readParts(expected
+					.toByteArray());
+			Map<String, String> actualParts = readParts(actual.toByteArray());
+			Assert.assertEquals(sample, expectedParts.keySet().toString(),
+					actualParts.keySet().toString());
+			Assert.assertEquals(sample, expectedParts, actualParts);
+			Assert.assertFalse(sample, new XWPFDocument(
+					new ByteArrayInputStream(actual.toByteArray()))
+					.getBodyElements().isEmpty());
+		}
+	}
+
+	@Test
+	public void testUnchangedTemplatePartsArePrecompressed() throws Exception {
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("advanced_table.xhtml"),
+				baos, null);
+		Map<String, String> parts = readParts(baos.toByteArray());
+
+		PrecompressedParts precompressedParts = DocXTemplateCache
+				.getInstance()
+				.getPrototype(TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE)
+				.getPrecompressedParts();
+		for (String name : new String[] { "word/styles.xml",
+				"word/numbering.xml", "word/settings.xml",
+				"word/fontTable.xml" }) {
+			Assert.assertNotNull(name, precompressedParts.find(name, parts
+					.get(name).getBytes("ISO-8859-1"),
+					Deflater.DEFAULT_COMPRESSION));
+		}
+		Assert.assertNull(precompressedParts.find("word/document.xml", parts
+				.get("word/document.xml").getBytes("ISO-8859-1"),
+				Deflater.DEFAULT_COMPRESSION));
+	}
+
+	@Test
+	public void testRepeatedImageIsLoadedOnce() throws Exception {
+
+		File image = writeImage("repeated_image.png");
+
+		HistogramConversionMetricsListener listener = new HistogramConversionMetricsListener();
+		XWPFOptions options = XWPFOptions.create();
+		options.setMetricsListener(listener);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(imagesXhtml(image, 3), baos,
+				options);
+
+		int mediaParts = 0;
+		for (String name : readParts(baos.toByteArray()).keySet()) {
+			if (name.startsWith("word/media/")) {
+				mediaParts++;
+			}
+		}
+		Assert.assertEquals(1, mediaParts);
+		Assert.assertEquals(image.length(), listener.getImageBytes());
+	}
+
+	@Test
+	public void testImageCacheIsSharedByConversions() throws Exception {
+
+		File image = writeImage("cached_image.png");
+
+		HistogramConversionMetricsListener listener = new HistogramConversionMetricsListener();
+		XWPFOptions options = XWPFOptions.create();
+		options.setMetricsListener(listener);
+		options.setImageCache(new ImageCache(1024));
+		for (int i = 0; i < 2; i++) {
+			XHTML2XWPFConverter.getInstance().convert(imagesXhtml(image, 2),
+					new ByteArrayOutputStream(), options);
+		}
+
+		Assert.assertEquals(image.length(), listener.getImageBytes());
+		Assert.assertEquals(1, options.getImageCache().getMisses());
+		Assert.assertEquals(1, options.getImageCache().getHits());
+		Assert.assertEquals(image.length(), options.getImageCache()
+				.getBytesSaved());
+
+		ImageCache cache = new ImageCache(10);
+		cache.put("a", new byte[4]);
+		cache.put("b", new byte[4]);
+		cache.get("a");
+		cache.put("c", new byte[4]);
+		cache.put("d", new byte[11]);
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertNull(cache.get("d"));
+		Assert.assertEquals(8, cache.getBytes());
+		Assert.assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void testAsynchronousImageLoadingMatchesSynchronousLoading()
+			throws Exception {
+
+		File image = writeImage("async_image.png");
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(imagesXhtml(image, 3),
+				expected, null);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (boolean streaming : new boolean[] { false, true }) {
+				XWPFOptions options = XWPFOptions.create();
+				options.setImageLoadingExecutor(executor);
+				options.setStreamingOutput(streaming);
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				XHTML2XWPFConverter.getInstance().convert(
+						imagesXhtml(image, 3), baos, options);
+
+				Map<String, String> parts = readParts(baos.toByteArray());
+				Assert.assertEquals(readParts(expected.toByteArray()), parts);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testWebProcessingResolvesOnlyDataUris() throws Exception {
+
+		XWPFOptions options = XWPFOptions.create();
+		options.setWebBasedProcessing(true);
+		Assert.assertEquals(
+				Arrays.<ImageResolver> asList(DataUriImageResolver
+						.getInstance()), options.getImageResolvers());
+
+		options.setWebClasspathImages(true);
+		Assert.assertEquals(Arrays.<ImageResolver> asList(
+				DataUriImageResolver.getInstance(),
+				ClasspathImageResolver.getInstance()),
+				options.getImageResolvers());
+	}
+
+	@Test
+	public void testDefaultOptionsCannotBeChanged() throws Exception {
+
+		try {
+			XWPFOptions.getDefault().setStreamingOutput(true);
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			XWPFOptions.getDefault().addImageResolver(
+					new MapImageResolver(new HashMap<String, byte[]>()));
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		Assert.assertFalse(XWPFOptions.getDefault().isStreamingOutput());
+	}
+
+	@Test
+	public void testImagesAreResolvedWithoutFiles() throws Exception {
+
+		Map<String, byte[]> charts = new HashMap<String, byte[]>();
+		charts.put("Charts/Sales.png", new byte[] { 4, 5, 6 });
+		XWPFOptions options = XWPFOptions.create();
+		options.addImageResolver(new MapImageResolver(charts));
+
+		String xhtml = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body>"
+				+ "<p><img src=\"data:image/png;base64,AQID\" style=\"height:20px; width:9px\" /></p>"
+				+ "<p><img src=\"Charts/Sales.png\" style=\"height:20px; width:9px\" /></p>"
+				+ "</body></html>";
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(xhtml.getBytes("UTF-8")), baos,
+				options);
+
+		Set<String> media = new HashSet<String>();
+		for (Map.Entry<String, String> part : readParts(baos.toByteArray())
+				.entrySet()) {
+			if (part.getKey().startsWith("word/media/")) {
+				media.add(part.getValue());
+			}
+		}
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("\1\2\3",
+				"\4\5\6")), media);
+	}
+
+	@Test
+	public void testLargeImagesAreCopiedFromFiles() throws Exception {
+
+		File image = new File("target", "large_image.png");
+		byte[] content = new byte[300 * 1024];
+		new Random(42).nextBytes(content);
+		FileOutputStream fos = new FileOutputStream(image);
+		try {
+			fos.write(content);
+		} finally {
+			fos.close();
+		}
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(imagesXhtml(image, 2),
+				expected, null);
+		Map<String, String> expectedParts = readParts(expected.toByteArray());
+
+		for (int mediaLevel : new int[] { Deflater.DEFAULT_COMPRESSION,
+				Deflater.NO_COMPRESSION }) {
+			for (boolean streaming : new boolean[] { false, true }) {
+				HistogramConversionMetricsListener listener = new HistogramConversionMetricsListener();
+				XWPFOptions options = XWPFOptions.create();
+				options.setMappedImageThreshold(100 * 1024);
+				options.setMediaCompressionLevel(mediaLevel);
+				options.setStreamingOutput(streaming);
+				options.setMetricsListener(listener);
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				XHTML2XWPFConverter.getInstance().convert(
+						imagesXhtml(image, 2), baos, options);
+
+				Assert.assertEquals(expectedParts, readParts(baos.toByteArray()));
+				Assert.assertEquals(0, listener.getImageBytes());
+			}
+		}
+	}
+
+	@Test
+	public void testConvertToDocument() throws Exception {
+
+		File image = new File("target", "document_image.png");
+		byte[] content = new byte[] { 1, 2, 3 };
+		FileOutputStream fos = new FileOutputStream(image);
+		try {
+			fos.write(content);
+		} finally {
+			fos.close();
+		}
+		String xhtml = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body>"
+				+ "<h1>Title</h1><ul><li>Item</li></ul><p><img src=\"file:///"
+				+ image.getPath()
+				+ "\" style=\"height:20px; width:9px\" /></p></body></html>";
+		XWPFDocument document = XWPFConverter.getInstance().convertToDocument(
+				new ByteArrayInputStream(xhtml.getBytes("UTF-8")), null);
+
+		List<XWPFParagraph> paragraphs = document.getParagraphs();
+		XWPFParagraph heading = paragraphs.get(0);
+		Assert.assertEquals("Title", heading.getText());
+		Assert.assertTrue(document.getStyles().styleExist(heading.getStyle()));
+		XWPFParagraph item = paragraphs.get(1);
+		Assert.assertEquals("Item", item.getText());
+		Assert.assertTrue(document.getNumbering().numExist(item.getNumID()));
+		List<XWPFPictureData> pictures = document.getAllPictures();
+		Assert.assertEquals(1, pictures.size());
+		Assert.assertTrue(Arrays.equals(content, pictures.get(0).getData()));
+	}
+
+	@Test
+	public void testLargeImagesAreLoadedWithoutOutput() throws Exception {
+
+		File image = new File("target", "large_image_document.png");
+		byte[] content = new byte[300 * 1024];
+		new Random(42).nextBytes(content);
+		FileOutputStream fos = new FileOutputStream(image);
+		try {
+			fos.write(content);
+		} finally {
+			fos.close();
+		}
+		XWPFOptions options = XWPFOptions.create();
+		options.setMappedImageThreshold(100 * 1024);
+		XWPFDocument document = XWPFConverter.getInstance().convertToDocument(
+				imagesXhtml(image, 2), options);
+
+		List<XWPFPictureData> pictures = document.getAllPictures();
+		Assert.assertEquals(1, pictures.size());
+		Assert.assertTrue(Arrays.equals(content, pictures.get(0).getData()));
+	}
+
+	@Test
+	public void testImageTypeAndSizeAreReadFromHeader() throws Exception {
+
+		BufferedImage bufferedImage = new BufferedImage(37, 21,
+				BufferedImage.TYPE_INT_RGB);
+		int[] types = new int[] { XWPFDocument.PICTURE_TYPE_PNG,
+				XWPFDocument.PICTURE_TYPE_JPEG, XWPFDocument.PICTURE_TYPE_GIF,
+				XWPFDocument.PICTURE_TYPE_BMP };
+		String[] formats = new String[] { "png", "jpeg", "gif", "bmp" };
+		for (int i = 0; i < formats.length; i++) {
+			ByteArrayOutputStream image = new ByteArrayOutputStream();
+			Assert.assertTrue(ImageIO.write(bufferedImage, formats[i], image));
+			ImageHeader header = ImageHeader.read(image.toByteArray());
+			Assert.assertEquals(formats[i], types[i], header.getPictureType());
+			Assert.assertEquals(formats[i], 37, header.getWidth());
+			Assert.assertEquals(formats[i], 21, header.getHeight());
+		}
+
+		ImageHeader tiff = ImageHeader.read(new byte[] { 'I', 'I', 42, 0, 8,
+				0, 0, 0, 2, 0, 0, 1, 3, 0, 1, 0, 0, 0, 37, 0, 0, 0, 1, 1, 4,
+				0, 1, 0, 0, 0, 21, 0, 0, 0 });
+		Assert.assertEquals(XWPFDocument.PICTURE_TYPE_TIFF,
+				tiff.getPictureType());
+		Assert.assertEquals(37, tiff.getWidth());
+		Assert.assertEquals(21, tiff.getHeight());
+
+		ImageHeader wmf = ImageHeader.read(new byte[] { (byte) 0xD7,
+				(byte) 0xCD, (byte) 0xC6, (byte) 0x9A, 0, 0, 0, 0, 0, 0,
+				(byte) 0xA0, 0x05, (byte) 0xD0, 0x02, (byte) 0xA0, 0x05 });
+		Assert.assertEquals(XWPFDocument.PICTURE_TYPE_WMF,
+				wmf.getPictureType());
+		Assert.assertEquals(96, wmf.getWidth());
+		Assert.assertEquals(48, wmf.getHeight());
+		Assert.assertNull(ImageHeader.read(new byte[] { 1, 2, 3 }));
+
+		// a PNG without extension and size is embedded at its own size
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(bufferedImage, "png", png);
+		Map<String, byte[]> images = new HashMap<String, byte[]>();
+		images.put("chart", png.toByteArray());
+		XWPFOptions options = XWPFOptions.create();
+		options.addImageResolver(new MapImageResolver(images));
+		String xhtml = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body>"
+				+ "<p><img src=\"chart\" /></p></body></html>";
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(xhtml.getBytes("UTF-8")), baos,
+				options);
+		Map<String, String> parts = readParts(baos.toByteArray());
+		Assert.assertTrue(parts.containsKey("word/media/image1.png"));
+		Assert.assertTrue(parts.get("word/document.xml").contains(
+				"cx=\"" + Units.toEMU(37) + "\" cy=\"" + Units.toEMU(21) + "\""));
+	}
+
+	@Test
+	public void testTemplatePrototypeReturnsIndependentDocuments()
+			throws Exception {
+
+		XWPFDocument first = DocXTemplateCache.getInstance().newDocument(
+				TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE);
+		first.createParagraph().createRun().setText("first");
+
+		XWPFDocument second = DocXTemplateCache.getInstance().newDocument(
+				TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE);
+		Assert.assertEquals(0, second.getBodyElements().size());
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		first.write(baos);
+		XWPFDocument reloaded = new XWPFDocument(new ByteArrayInputStream(
+				baos.toByteArray()));
+		Assert.assertEquals(1, reloaded.getParagraphs().size());
+		Assert.assertNotNull(reloaded.getStyles());
+		Assert.assertNotNull(reloaded.getNumbering());
+	}
+
+	@Test
+	public void testTemplatePrototypeIsLoadedOnce() throws Exception {
+
+		DocXTemplatePrototype prototype = DocXTemplateCache.getInstance()
+				.getPrototype(TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE);
+		XWPFDocument first = DocXTemplateCache.getInstance().newDocument(
+				TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE);
+		XWPFDocument second = DocXTemplateCache.getInstance().newDocument(
+				TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE);
+
+		Assert.assertSame(prototype, DocXTemplateCache.getInstance()
+				.getPrototype(TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE));
+		Assert.assertNotSame(first, second);
+		Assert.assertNotSame(first.getDocument(), second.getDocument());
+	}
+
+	@Test
+	public void testTemplateDocumentHasStylesAndNumbering() throws Exception {
+
+		XWPFDocument document = DocXTemplateCache.getInstance().newDocument(
+				TemplateConstants.FILE_NAME_EMPTY_BULLET_TEMPLATE);
+
+		Assert.assertNotNull(document.getStyles());
+		Assert.assertNotNull(document.getNumbering());
+	}
+
+	@Test
+	public void testLargeTableConversion() throws Exception {
+
+		int rows = 200;
+		int columns = 5;
+		StringBuilder xhtml = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><table>");
+		for (int i = 0; i < rows; i++) {
+			xhtml.append("<tr>");
+			for (int j = 0; j < columns; j++) {
+				xhtml.append("<td><p>Row ").append(i).append(" <strong>cell ")
+						.append(j).append("</strong></p></td>");
+			}
+			xhtml.append("</tr>\n");
+		}
+		xhtml.append("</table></body></html>");
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(xhtml.toString().getBytes("UTF-8")),
+				baos, null);
+
+		XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(
+				baos.toByteArray()));
+		Assert.assertEquals(1, document.getTables().size());
+		Assert.assertEquals(rows, document.getTables().get(0)
+				.getNumberOfRows());
+		Assert.assertEquals(columns, document.getTables().get(0).getRow(0)
+				.getTableCells().size());
+	}
+
+	@Test
+	public void testTableBordersAreSetOncePerTable() throws Exception {
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				DataAccess.class.getResourceAsStream("advanced_table.xhtml"),
+				baos, null);
+
+		String documentXml = readPart(baos.toByteArray(), "word/document.xml");
+		Assert.assertFalse(documentXml.contains("<w:tcBorders>"));
+
+		XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(
+				baos.toByteArray()));
+		Assert.assertFalse(document.getTables().isEmpty());
+		for (XWPFTable table : document.getTables()) {
+			CTTblBorders borders = table.getCTTbl().getTblPr()
+					.getTblBorders();
+			for (CTBorder border : new CTBorder[] { borders.getTop(),
+					borders.getLeft(), borders.getBottom(), borders.getRight(),
+					borders.getInsideH(), borders.getInsideV() }) {
+				Assert.assertEquals(STBorder.THICK, border.getVal());
+				Assert.assertEquals(HTMLConstants.COLOR_GREY,
+						border.xgetColor().getStringValue());
+			}
+		}
+	}
+
+	@Test
+	public void testRowSpanCellsAreContinued() throws Exception {
+
+		StringBuilder xhtml = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><table>");
+		for (int i = 0; i < 6; i++) {
+			xhtml.append("<tr>");
+			if (i % 3 == 0) {
+				xhtml.append("<td rowspan=\"3\" style=\"width:50px\">Span ")
+						.append(i).append("</td>");
+			}
+			xhtml.append("<td>Row ").append(i).append("</td><td>Cell</td></tr>");
+		}
+		xhtml.append("</table></body></html>");
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		XHTML2XWPFConverter.getInstance().convert(
+				new ByteArrayInputStream(xhtml.toString().getBytes("UTF-8")),
+				baos, null);
+
+		XWPFTable table = new XWPFDocument(new ByteArrayInputStream(
+				baos.toByteArray())).getTables().get(0);
+		Assert.assertEquals(6, table.getNumberOfRows());
+		Assert.assertEquals(3, table.getCTTbl().getTblGrid().sizeOfGridColArray());
+		for (int i = 0; i < 6; i++) {
+			Assert.assertEquals(3, table.getRow(i).getTableCells().size());
+			CTTcPr first = table.getRow(i).getCell(0).getCTTc().getTcPr();
+			Assert.assertEquals(i % 3 == 0 ? STMerge.RESTART : STMerge.CONTINUE,
+					first.getVMerge().getVal());
+			Assert.assertEquals(STTblWidth.DXA, first.getTcW().getType());
+			Assert.assertEquals("Row " + i, table.getRow(i).getCell(1)
+					.getText());
+		}
+	}
+
+	/**
+	 * This method writes a small fake PNG image.
+	 *
+	 * @param name
+	 *            file name in the target directory
+	 * @return image file
+	 * @throws IOException
+	 */
+	private static File writeImage(String name) throws IOException {
+		// image paths are lower-cased by the converter
+		File image = new File("target", name);
+		FileOutputStream fos = new FileOutputStream(image);
+		try {
+			fos.write(new byte[] { (byte) 0x89, 'p', 'n', 'g', 1, 2, 3 });
+		} finally {
+			fos.close();
+		}
+		return image;
+	}
+
+	/**
+	 * This method creates XHTML referencing the image the given number of
+	 * times.
+	 *
+	 * @param image
+	 *            image file
+	 * @param count
+	 *            number of references
+	 * @return XHTML
+	 * @throws IOException
+	 */
+	private static ByteArrayInputStream imagesXhtml(File image, int count)
+			throws IOException {
+		StringBuilder xhtml = new StringBuilder(
+				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><body>");
+		for (int i = 0; i < count; i++) {
+			xhtml.append("<p><img src=\"file:///").append(image.getPath())
+					.append("\" style=\"height:20px; width:9px\" /></p>");
+		}
+		xhtml.append("</body></html>");
+		return new ByteArrayInputStream(xhtml.toString().getBytes("UTF-8"));
+	}
+
+	/**
+	 * This method extracts all parts of the DocX package.
+	 *
+	 * @param docx
+	 *            DocX package
+	 * @return part contents by zip entry name, in zip order
+	 * @throws IOException
+	 */
+	private static Map<String, String> readParts(byte[] docx)
+			throws IOException {
+		Map<String, String> parts = new LinkedHashMap<String, String>();
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(docx));
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				parts.put(entry.getName(), readEntry(zip));
+			}
+		} finally {
+			zip.close();
+		}
+		return parts;
+	}
+
+	/**
+	 * This method extracts a part of the DocX package.
+	 *
+	 * @param docx
+	 *            DocX package
+	 * @param name
+	 *            zip entry name of the part
+	 * @return part content
+	 * @throws IOException
+	 */
+	private static String readPart(byte[] docx, String name)
+			throws IOException {
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(docx));
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (name.equals(entry.getName())) {
+					return readEntry(zip);
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		throw new IOException(name + " not found");
+	}
+
+	private static String readEntry(ZipInputStream zip) throws IOException {
+		ByteArrayOutputStream part = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = zip.read(buffer)) != -1) {
+			part.write(buffer, 0, read);
+		}
+		return new String(part.toByteArray(), "ISO-8859-1");
+	}
+
 }